@@ -0,0 +1,183 @@
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Listens on a dedicated connection for the catalog changes other nodes publish through
+ * {@link DataRetriever} and evicts the matching dishes from the local cache. Notifications sent while
+ * the listener was disconnected are lost, so every (re)connection starts with a full flush, and so does
+ * a poll that returns more than {@code maxBacklog} notifications at once. A half-open connection never
+ * fails a poll, so the connection is also probed with {@code select 1} under a network timeout.
+ */
+public class CatalogChangeListener implements AutoCloseable {
+    static final String CHANNEL = "catalog_changed";
+    static final String DISH_PREFIX = "dish:";
+    static final String INGREDIENT_PREFIX = "ingredient:";
+
+    private static final Logger LOGGER = Logger.getLogger(CatalogChangeListener.class.getName());
+    private static final int POLL_TIMEOUT_MILLIS = 500;
+    private static final Duration LIVENESS_CHECK_INTERVAL = Duration.ofSeconds(30);
+    private static final Duration NETWORK_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration MIN_RECONNECT_DELAY = Duration.ofSeconds(1);
+    private static final Duration MAX_RECONNECT_DELAY = Duration.ofSeconds(30);
+
+    private final DBConnection dbConnection;
+    private final DataRetriever dataRetriever;
+    private final int maxBacklog;
+    private final Thread listener;
+    private volatile boolean closed;
+    private volatile boolean connected;
+
+    private final LongAdder receivedNotifications = new LongAdder();
+    private final LongAdder fullFlushes = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    public CatalogChangeListener(DBConnection dbConnection, DataRetriever dataRetriever) {
+        this(dbConnection, dataRetriever, 1000);
+    }
+
+    public CatalogChangeListener(DBConnection dbConnection, DataRetriever dataRetriever, int maxBacklog) {
+        if (maxBacklog < 1) {
+            throw new IllegalArgumentException("Max backlog must be positive: " + maxBacklog);
+        }
+        this.dbConnection = dbConnection;
+        this.dataRetriever = dataRetriever;
+        this.maxBacklog = maxBacklog;
+        this.listener = Thread.ofPlatform().name("catalog-change-listener").daemon().unstarted(this::listen);
+    }
+
+    /**
+     * Starts listening on a background thread until {@link #close()}.
+     */
+    public synchronized void start() {
+        if (listener.getState() != Thread.State.NEW) {
+            throw new IllegalStateException("Listener already started");
+        }
+        listener.start();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getReceivedNotifications() {
+        return receivedNotifications.sum();
+    }
+
+    public long getFullFlushes() {
+        return fullFlushes.sum();
+    }
+
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            listener.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void listen() {
+        Duration reconnectDelay = MIN_RECONNECT_DELAY;
+        boolean firstConnection = true;
+        while (!closed) {
+            try (Connection connection = dbConnection.openPhysicalConnection();
+                 Statement statement = connection.createStatement()) {
+                connection.setNetworkTimeout(Runnable::run, (int) NETWORK_TIMEOUT.toMillis());
+                statement.execute("listen " + CHANNEL);
+                connected = true;
+                if (!firstConnection) {
+                    reconnects.increment();
+                }
+                firstConnection = false;
+                reconnectDelay = MIN_RECONNECT_DELAY;
+                flush();
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                long nextLivenessCheck = System.nanoTime() + LIVENESS_CHECK_INTERVAL.toNanos();
+                while (!closed) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null && notifications.length > 0) {
+                        apply(notifications);
+                    }
+                    if (System.nanoTime() - nextLivenessCheck >= 0) {
+                        // Throws once the network timeout expires if the server no longer answers
+                        statement.execute("select 1");
+                        nextLivenessCheck = System.nanoTime() + LIVENESS_CHECK_INTERVAL.toNanos();
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                connected = false;
+                if (closed) {
+                    return;
+                }
+                LOGGER.log(Level.WARNING, "Catalog change listener disconnected, retrying in "
+                        + reconnectDelay.toMillis() + " ms", e);
+                try {
+                    Thread.sleep(reconnectDelay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                reconnectDelay = reconnectDelay.multipliedBy(2);
+                if (reconnectDelay.compareTo(MAX_RECONNECT_DELAY) > 0) {
+                    reconnectDelay = MAX_RECONNECT_DELAY;
+                }
+            } finally {
+                connected = false;
+            }
+        }
+    }
+
+    private void apply(PGNotification[] notifications) {
+        receivedNotifications.add(notifications.length);
+        if (notifications.length > maxBacklog) {
+            flush();
+            return;
+        }
+        Set<Integer> dishIds = new HashSet<>();
+        Set<Integer> ingredientIds = new HashSet<>();
+        for (PGNotification notification : notifications) {
+            String payload = notification.getParameter();
+            try {
+                if (payload.startsWith(DISH_PREFIX)) {
+                    parseIds(payload.substring(DISH_PREFIX.length()), dishIds);
+                } else if (payload.startsWith(INGREDIENT_PREFIX)) {
+                    parseIds(payload.substring(INGREDIENT_PREFIX.length()), ingredientIds);
+                } else {
+                    flush();
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                flush();
+                return;
+            }
+        }
+        dataRetriever.evictCachedDishes(dishIds, ingredientIds);
+    }
+
+    private void flush() {
+        fullFlushes.increment();
+        dataRetriever.getDishCache().invalidateAll();
+    }
+
+    private static void parseIds(String ids, Set<Integer> target) {
+        for (String id : ids.split(",")) {
+            target.add(Integer.parseInt(id.trim()));
+        }
+    }
+}
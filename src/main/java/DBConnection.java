@@ -1,17 +1,138 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class DBConnection {
+/**
+ * Bounded pool of PostgreSQL connections. Connections handed out by {@link #getConnection()}
+ * go back to the pool when closed, so callers keep using try-with-resources as before.
+ * <p>
+ * One pool per application is expected: create it once and share it between the {@link DataRetriever}s,
+ * or use {@link #getDefault()}, and {@link #close()} it on shutdown. Nothing is opened and no thread is
+ * started until the first connection is requested.
+ */
+public final class DBConnection implements AutoCloseable {
+    private static final String JDBC_URL = "jdbc:postgresql://localhost:5432/mini_dish_db";
+    private static final String USER = "postgres";
+    private static final String PASSWORD = "Fitiavana";
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final Duration VALIDATE_AFTER_IDLE = Duration.ofSeconds(5);
+
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final Duration acquireTimeout;
+    private final Duration idleTimeout;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionReleased = lock.newCondition();
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    private final LongAdder preparedStatements = new LongAdder();
+    private ScheduledExecutorService evictor;
+    private int totalConnections;
+    private int activeConnections;
+    private int waitingThreads;
+    private boolean closed;
+
+    public DBConnection() {
+        this(JDBC_URL, USER, PASSWORD, 2, 10, Duration.ofSeconds(30), Duration.ofMinutes(5));
+    }
+
+    public DBConnection(String jdbcUrl, String user, String password, int minPoolSize, int maxPoolSize,
+                        Duration acquireTimeout, Duration idleTimeout) {
+        if (minPoolSize < 0 || maxPoolSize < 1 || minPoolSize > maxPoolSize) {
+            throw new IllegalArgumentException("Invalid pool size min=" + minPoolSize + " max=" + maxPoolSize);
+        }
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.acquireTimeout = acquireTimeout;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Pool on the default database shared by every {@link DataRetriever} created without one. It lives as
+     * long as the application and is never closed.
+     */
+    public static DBConnection getDefault() {
+        return DefaultPool.INSTANCE;
+    }
 
     public Connection getConnection() {
+        long remainingNanos = acquireTimeout.toNanos();
+        lock.lock();
         try {
-            String jdbcURl = System.getenv("JDBC_URl"); //
-            String user = System.getenv("USER"); //mini_dish_db_manager
-            String password = System.getenv("PASSWORD"); //123456
-            return DriverManager.getConnection("jdbc:postgresql://localhost:5432/mini_dish_db", "postgres", "Fitiavana");
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Connection pool is closed");
+                }
+                startEvictor();
+                IdleConnection idle = idleConnections.pollFirst();
+                if (idle != null) {
+                    activeConnections++;
+                    lock.unlock();
+                    try {
+                        if (isUsable(idle)) {
+                            return wrap(idle.physical);
+                        }
+                        closeQuietly(idle.physical);
+                    } finally {
+                        lock.lock();
+                    }
+                    activeConnections--;
+                    totalConnections--;
+                    continue;
+                }
+                if (totalConnections < maxPoolSize) {
+                    totalConnections++;
+                    activeConnections++;
+                    lock.unlock();
+                    try {
+                        return wrap(openPhysicalConnection());
+                    } catch (RuntimeException e) {
+                        lock.lock();
+                        totalConnections--;
+                        activeConnections--;
+                        connectionReleased.signal();
+                        throw e;
+                    } finally {
+                        if (!lock.isHeldByCurrentThread()) {
+                            lock.lock();
+                        }
+                    }
+                }
+                if (remainingNanos <= 0) {
+                    throw new RuntimeException("Timeout after " + acquireTimeout.toMillis()
+                            + " ms waiting for a database connection (max pool size " + maxPoolSize + ")");
+                }
+                waitingThreads++;
+                try {
+                    remainingNanos = connectionReleased.awaitNanos(remainingNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } finally {
+                    waitingThreads--;
+                }
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -24,4 +145,238 @@ public class DBConnection {
             }
         }
     }
+
+    public int getActiveConnections() {
+        lock.lock();
+        try {
+            return activeConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaitingThreads() {
+        lock.lock();
+        try {
+            return waitingThreads;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return totalConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPreparedStatementCount() {
+        return preparedStatements.sum();
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (evictor != null) {
+                evictor.shutdownNow();
+            }
+            for (IdleConnection idle : idleConnections) {
+                closeQuietly(idle.physical);
+                totalConnections--;
+            }
+            idleConnections.clear();
+            connectionReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DBConnection{" +
+                "total=" + getTotalConnections() +
+                ", active=" + getActiveConnections() +
+                ", idle=" + getIdleConnections() +
+                ", waiting=" + getWaitingThreads() +
+                '}';
+    }
+
+    Connection openPhysicalConnection() {
+        try {
+            return DriverManager.getConnection(jdbcUrl, user, password);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleTimeout.toMillis() / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isUsable(IdleConnection idle) {
+        try {
+            if (idle.physical.isClosed()) {
+                return false;
+            }
+            if (System.nanoTime() - idle.idleSinceNanos < VALIDATE_AFTER_IDLE.toNanos()) {
+                return true;
+            }
+            return idle.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Connection physical) {
+        boolean reusable;
+        try {
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly()) {
+                physical.setReadOnly(false);
+            }
+            reusable = !physical.isClosed();
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        lock.lock();
+        try {
+            activeConnections--;
+            if (reusable && !closed) {
+                idleConnections.addFirst(new IdleConnection(physical, System.nanoTime()));
+            } else {
+                totalConnections--;
+                closeQuietly(physical);
+            }
+            connectionReleased.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.nanoTime();
+        int missing;
+        lock.lock();
+        try {
+            Iterator<IdleConnection> oldestFirst = idleConnections.descendingIterator();
+            while (oldestFirst.hasNext() && totalConnections > minPoolSize) {
+                IdleConnection idle = oldestFirst.next();
+                if (now - idle.idleSinceNanos < idleTimeout.toNanos()) {
+                    break;
+                }
+                oldestFirst.remove();
+                totalConnections--;
+                closeQuietly(idle.physical);
+            }
+            missing = closed ? 0 : minPoolSize - totalConnections;
+            totalConnections += Math.max(0, missing);
+        } finally {
+            lock.unlock();
+        }
+
+        for (int i = 0; i < missing; i++) {
+            Connection physical;
+            try {
+                physical = openPhysicalConnection();
+            } catch (RuntimeException e) {
+                lock.lock();
+                try {
+                    totalConnections -= missing - i;
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                idleConnections.addLast(new IdleConnection(physical, System.nanoTime()));
+                connectionReleased.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Connection wrap(Connection physical) {
+        boolean[] returned = {false};
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close" -> {
+                            if (!returned[0]) {
+                                returned[0] = true;
+                                release(physical);
+                            }
+                            return null;
+                        }
+                        case "isClosed" -> {
+                            return returned[0] || physical.isClosed();
+                        }
+                        case "toString" -> {
+                            return "Pooled" + physical;
+                        }
+                        case "hashCode" -> {
+                            return System.identityHashCode(proxy);
+                        }
+                        case "equals" -> {
+                            return proxy == args[0];
+                        }
+                        case "prepareStatement", "prepareCall", "createStatement" -> preparedStatements.increment();
+                    }
+                    if (returned[0]) {
+                        throw new SQLException("Connection already returned to the pool");
+                    }
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private static final class DefaultPool {
+        private static final DBConnection INSTANCE = new DBConnection();
+    }
+
+    private record IdleConnection(Connection physical, long idleSinceNanos) {
+    }
 }
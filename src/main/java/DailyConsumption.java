@@ -0,0 +1,60 @@
+import java.time.LocalDate;
+
+public class DailyConsumption {
+    private final Integer idIngredient;
+    private final Unit unit;
+    private final LocalDate day;
+    private final Double totalIn;
+    private final Double totalOut;
+    private final Integer movementCount;
+
+    public DailyConsumption(Integer idIngredient, Unit unit, LocalDate day, Double totalIn, Double totalOut,
+                            Integer movementCount) {
+        this.idIngredient = idIngredient;
+        this.unit = unit;
+        this.day = day;
+        this.totalIn = totalIn;
+        this.totalOut = totalOut;
+        this.movementCount = movementCount;
+    }
+
+    public Integer getIdIngredient() {
+        return idIngredient;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public Double getTotalIn() {
+        return totalIn;
+    }
+
+    public Double getTotalOut() {
+        return totalOut;
+    }
+
+    public Double getNet() {
+        return totalIn - totalOut;
+    }
+
+    public Integer getMovementCount() {
+        return movementCount;
+    }
+
+    @Override
+    public String toString() {
+        return "DailyConsumption{" +
+                "idIngredient=" + idIngredient +
+                ", unit=" + unit +
+                ", day=" + day +
+                ", totalIn=" + totalIn +
+                ", totalOut=" + totalOut +
+                ", movementCount=" + movementCount +
+                '}';
+    }
+}
@@ -1,75 +1,308 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DataRetriever {
+    private static final int DEFAULT_FETCH_SIZE = 500;
+    private static final int COPY_ID_BLOCK_SIZE = 1000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_CREATE_CHUNK_SIZE = 1000;
+    private static final int DEFAULT_DISH_CACHE_SIZE = 1000;
+    private static final Duration DEFAULT_DISH_CACHE_TTL = Duration.ofMinutes(10);
+    private static final int MAX_NOTIFY_PAYLOAD_LENGTH = 7000;
+    private static final long STOCK_CHECKPOINT_LOCK = 0x73746f636b63704cL;
+
+    private final DBConnection dbConnection;
+    private final IdAllocator idAllocator = new IdAllocator();
+    private final LruCache<Integer, Dish> dishCache;
+    private final LiveStock liveStock;
+    private final List<Consumer<StockMovementSummary>> stockMovementListeners = new CopyOnWriteArrayList<>();
+    private final ReentrantReadWriteLock stockMovementPublication = new ReentrantReadWriteLock();
+
+    public DataRetriever() {
+        this(DBConnection.getDefault());
+    }
+
+    public DataRetriever(DBConnection dbConnection) {
+        this(dbConnection, new LruCache<>(DEFAULT_DISH_CACHE_SIZE, DEFAULT_DISH_CACHE_TTL));
+    }
+
+    public DataRetriever(DBConnection dbConnection, LruCache<Integer, Dish> dishCache) {
+        this(dbConnection, dishCache, null);
+    }
+
+    /**
+     * @param liveStock counters to keep up to date with the movements written here, or null to run without
+     */
+    public DataRetriever(DBConnection dbConnection, LruCache<Integer, Dish> dishCache, LiveStock liveStock) {
+        this.dbConnection = dbConnection;
+        this.dishCache = dishCache;
+        this.liveStock = liveStock;
+    }
+
+    /**
+     * Dishes with their recipe, as read by {@link #findDishById(Integer)} and {@link #findDishesByIds(Collection)}.
+     * Cached dishes are private copies: callers always get their own copy and never the cached instance.
+     */
+    LruCache<Integer, Dish> getDishCache() {
+        return dishCache;
+    }
 
     Order findOrderByReference(String reference) {
-        DBConnection dbConnection = new DBConnection();
         try (Connection connection = dbConnection.getConnection()) {
-            PreparedStatement preparedStatement = connection.prepareStatement("""
-                    select id, reference, creation_datetime from "order" where reference like ?""");
+            return findOrderByReference(connection, reference);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Order findOrderByReference(Connection connection, String reference) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("""
+                select o.id, o.reference, o.creation_datetime,
+                       dish_order.id as id_dish_order, dish_order.id_dish, dish_order.quantity
+                from "order" o
+                         left join dish_order on dish_order.id_order = o.id
+                where o.reference = ?
+                order by dish_order.id""")) {
             preparedStatement.setString(1, reference);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                Order order = new Order();
-                Integer idOrder = resultSet.getInt("id");
-                order.setId(idOrder);
-                order.setReference(resultSet.getString("reference"));
-                order.setCreationDatetime(resultSet.getTimestamp("creation_datetime").toInstant());
-                order.setDishOrderList(findDishOrderByIdOrder(idOrder));
-                return order;
-            }
-            throw new RuntimeException("Order not found with reference " + reference);
+            List<Order> orders = mapOrders(connection, preparedStatement.executeQuery());
+            if (orders.isEmpty()) {
+                throw new RuntimeException("Order not found with reference " + reference);
+            }
+            return orders.get(0);
+        }
+    }
+
+    /**
+     * Orders whose reference starts with {@code prefix}, in reference order, with their dish lines. The
+     * prefix is matched literally, so the lookup can use the text_pattern_ops index on the reference.
+     */
+    List<Order> findOrdersByReferencePrefix(String prefix, int limit) {
+        String pattern = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        try (Connection connection = dbConnection.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("""
+                     select o.id, o.reference, o.creation_datetime,
+                            dish_order.id as id_dish_order, dish_order.id_dish, dish_order.quantity
+                     from (select id, reference, creation_datetime
+                           from "order"
+                           where reference like ? escape '\\'
+                           order by reference
+                           limit ?) o
+                              left join dish_order on dish_order.id_order = o.id
+                     order by o.reference, dish_order.id""")) {
+            preparedStatement.setString(1, pattern);
+            preparedStatement.setInt(2, limit);
+            return mapOrders(connection, preparedStatement.executeQuery());
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private List<DishOrder> findDishOrderByIdOrder(Integer idOrder) {
-        DBConnection dbConnection = new DBConnection();
-        Connection connection = dbConnection.getConnection();
-        List<DishOrder> dishOrders = new ArrayList<>();
-        try {
-            PreparedStatement preparedStatement = connection.prepareStatement(
-                    """
-                            select id, id_dish, quantity from dish_order where dish_order.id_order = ?
-                            """);
-            preparedStatement.setInt(1, idOrder);
-            ResultSet resultSet = preparedStatement.executeQuery();
+    private List<Order> mapOrders(Connection connection, ResultSet resultSet) throws SQLException {
+        Map<Integer, Order> orders = new LinkedHashMap<>();
+        Map<Integer, List<DishOrder>> dishOrdersByOrder = new HashMap<>();
+        Map<DishOrder, Integer> dishIdByDishOrder = new IdentityHashMap<>();
+        try (resultSet) {
             while (resultSet.next()) {
-                Dish dish = findDishById(resultSet.getInt("id_dish"));
-                DishOrder dishOrder = new DishOrder();
-                dishOrder.setId(resultSet.getInt("id"));
-                dishOrder.setQuantity(resultSet.getInt("quantity"));
+                Order order = orders.get(resultSet.getInt("id"));
+                if (order == null) {
+                    order = new Order();
+                    order.setId(resultSet.getInt("id"));
+                    order.setReference(resultSet.getString("reference"));
+                    order.setCreationDatetime(resultSet.getTimestamp("creation_datetime").toInstant());
+                    orders.put(order.getId(), order);
+                }
+                List<DishOrder> dishOrders = dishOrdersByOrder.computeIfAbsent(order.getId(), id -> new ArrayList<>());
+                if (resultSet.getObject("id_dish_order") != null) {
+                    DishOrder dishOrder = new DishOrder();
+                    dishOrder.setId(resultSet.getInt("id_dish_order"));
+                    dishOrder.setQuantity(resultSet.getInt("quantity"));
+                    dishOrders.add(dishOrder);
+                    dishIdByDishOrder.put(dishOrder, resultSet.getInt("id_dish"));
+                }
+            }
+        }
+
+        Map<Integer, Dish> dishes = findDishesByIds(connection, new HashSet<>(dishIdByDishOrder.values()));
+        for (Order order : orders.values()) {
+            List<DishOrder> dishOrders = dishOrdersByOrder.get(order.getId());
+            for (DishOrder dishOrder : dishOrders) {
+                Integer idDish = dishIdByDishOrder.get(dishOrder);
+                Dish dish = dishes.get(idDish);
+                if (dish == null) {
+                    throw new RuntimeException("Dish not found " + idDish);
+                }
                 dishOrder.setDish(dish);
-                dishOrders.add(dishOrder);
             }
-            dbConnection.closeConnection(connection);
-            return dishOrders;
+            order.setDishOrderList(dishOrders);
+        }
+        return new ArrayList<>(orders.values());
+    }
+
+    Map<Integer, Dish> findDishesByIds(Collection<Integer> ids) {
+        try (Connection connection = dbConnection.getConnection()) {
+            return findDishesByIds(connection, ids);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    List<Dish> findAllDishes() {
+        try (Connection connection = dbConnection.getConnection()) {
+            List<Integer> ids = new ArrayList<>();
+            try (PreparedStatement preparedStatement = connection.prepareStatement("select id from dish order by id")) {
+                ResultSet resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    ids.add(resultSet.getInt("id"));
+                }
+            }
+            return new ArrayList<>(findDishesByIds(connection, ids).values());
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private Map<Integer, Dish> findDishesByIds(Connection connection, Collection<Integer> ids) throws SQLException {
+        long generation = dishCache.generation();
+        Map<Integer, Dish> dishes = new TreeMap<>();
+        List<Integer> missingIds = new ArrayList<>();
+        for (Integer id : new HashSet<>(ids)) {
+            Dish cached = dishCache.get(id);
+            if (cached != null) {
+                dishes.put(id, copyDish(cached));
+            } else {
+                missingIds.add(id);
+            }
+        }
+        Map<Integer, Dish> loaded = loadDishesByIds(connection, missingIds);
+        loaded.forEach((id, dish) -> dishCache.putIfCurrent(id, copyDish(dish), generation));
+        dishes.putAll(loaded);
+        return new LinkedHashMap<>(dishes);
+    }
+
+    private Map<Integer, Dish> loadDishesByIds(Connection connection, Collection<Integer> ids) throws SQLException {
+        Map<Integer, Dish> dishes = new LinkedHashMap<>();
+        if (ids.isEmpty()) {
+            return dishes;
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                """
+                        select dish.id as dish_id, dish.name as dish_name, dish_type, dish.selling_price as dish_price
+                        from dish
+                        where dish.id = any(?)
+                        order by dish.id;
+                        """)) {
+            preparedStatement.setArray(1, connection.createArrayOf("int4", ids.toArray()));
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                Dish dish = new Dish();
+                dish.setId(resultSet.getInt("dish_id"));
+                dish.setName(resultSet.getString("dish_name"));
+                dish.setDishType(DishTypeEnum.valueOf(resultSet.getString("dish_type")));
+                dish.setPrice(resultSet.getObject("dish_price") == null
+                        ? null : resultSet.getDouble("dish_price"));
+                dishes.put(dish.getId(), dish);
+            }
+        }
+        Map<Integer, List<DishIngredient>> dishIngredients = findIngredientsByDishIds(connection, dishes.keySet());
+        dishes.forEach((idDish, dish) -> dish.setDishIngredients(dishIngredients.getOrDefault(idDish, new ArrayList<>())));
+        return dishes;
+    }
+
+    private Map<Integer, List<DishIngredient>> findIngredientsByDishIds(Connection connection, Collection<Integer> idDishes)
+            throws SQLException {
+        Map<Integer, List<DishIngredient>> dishIngredients = new HashMap<>();
+        if (idDishes.isEmpty()) {
+            return dishIngredients;
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                """
+                        select di.id_dish, ingredient.id, ingredient.name, ingredient.price, ingredient.category, di.required_quantity, di.unit
+                        from ingredient join dish_ingredient di on di.id_ingredient = ingredient.id
+                        where di.id_dish = any(?)
+                        order by di.id_dish, di.id;
+                        """)) {
+            preparedStatement.setArray(1, connection.createArrayOf("int4", idDishes.toArray()));
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                dishIngredients.computeIfAbsent(resultSet.getInt("id_dish"), idDish -> new ArrayList<>())
+                        .add(mapDishIngredient(resultSet));
+            }
+            return dishIngredients;
+        }
+    }
+
     Dish findDishById(Integer id) {
-        DBConnection dbConnection = new DBConnection();
-        Connection connection = dbConnection.getConnection();
-        try {
-            PreparedStatement preparedStatement = connection.prepareStatement(
-                    """
-                            select dish.id as dish_id, dish.name as dish_name, dish_type, dish.selling_price as dish_price
-                            from dish
-                            where dish.id = ?;
-                            """);
+        try (Connection connection = dbConnection.getConnection()) {
+            return findDishById(connection, id);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Dish findDishById(Connection connection, Integer id) throws SQLException {
+        long generation = dishCache.generation();
+        Dish cached = dishCache.get(id);
+        if (cached != null) {
+            return copyDish(cached);
+        }
+        Dish dish = loadDishById(connection, id);
+        dishCache.putIfCurrent(id, copyDish(dish), generation);
+        return dish;
+    }
+
+    private Dish loadDishById(Connection connection, Integer id) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                """
+                        select dish.id as dish_id, dish.name as dish_name, dish_type, dish.selling_price as dish_price
+                        from dish
+                        where dish.id = ?;
+                        """)) {
             preparedStatement.setInt(1, id);
             ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -79,13 +312,10 @@ public class DataRetriever {
                 dish.setDishType(DishTypeEnum.valueOf(resultSet.getString("dish_type")));
                 dish.setPrice(resultSet.getObject("dish_price") == null
                         ? null : resultSet.getDouble("dish_price"));
-                dish.setDishIngredients(findIngredientByDishId(id));
+                dish.setDishIngredients(findIngredientByDishId(connection, id));
                 return dish;
             }
-            dbConnection.closeConnection(connection);
             throw new RuntimeException("Dish not found " + id);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
     }
 
@@ -101,14 +331,14 @@ public class DataRetriever {
                     RETURNING id
                 """;
 
-        try (Connection conn = new DBConnection().getConnection()) {
+        try (Connection conn = dbConnection.getConnection()) {
             conn.setAutoCommit(false);
             Integer ingredientId;
             try (PreparedStatement ps = conn.prepareStatement(upsertIngredientSql)) {
                 if (toSave.getId() != null) {
                     ps.setInt(1, toSave.getId());
                 } else {
-                    ps.setInt(1, getNextSerialValue(conn, "ingredient", "id"));
+                    ps.setInt(1, idAllocator.nextId(conn, "ingredient"));
                 }
                 if (toSave.getPrice() != null) {
                     ps.setDouble(2, toSave.getPrice());
@@ -123,48 +353,540 @@ public class DataRetriever {
                 }
             }
 
-            insertIngredientStockMovements(conn, toSave);
+            StockMovementSummary summary = new StockMovementSummary();
+            insertIngredientStockMovements(conn, ingredientId, toSave, summary);
+            publishCatalogChange(conn, CatalogChangeListener.INGREDIENT_PREFIX, List.of(ingredientId));
 
-            conn.commit();
-            return findIngredientById(ingredientId);
+            commitStockMovements(conn, summary);
+            invalidateDishesUsingIngredients(Set.of(ingredientId));
+            return findIngredientById(conn, ingredientId);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void insertIngredientStockMovements(Connection conn, Ingredient ingredient) {
+    private void insertIngredientStockMovements(Connection conn, Integer ingredientId, Ingredient ingredient,
+                                                StockMovementSummary summary) {
         List<StockMovement> stockMovementList = ingredient.getStockMovementList();
+        if (stockMovementList == null || stockMovementList.isEmpty()) {
+            return;
+        }
         String sql = """
                 insert into stock_movement(id, id_ingredient, quantity, type, unit, creation_datetime)
                 values (?, ?, ?, ?::movement_type, ?::unit, ?)
                 on conflict (id) do nothing
                 """;
-        try {
-            PreparedStatement preparedStatement = conn.prepareStatement(sql);
+        try (PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+            int newMovementCount = (int) stockMovementList.stream().filter(stockMovement -> stockMovement.getId() == null).count();
+            int[] newIds = idAllocator.nextIds(conn, "stock_movement", newMovementCount);
+            int i = 0;
             for (StockMovement stockMovement : stockMovementList) {
-                if (ingredient.getId() != null) {
-                    preparedStatement.setInt(1, ingredient.getId());
-                } else {
-                    preparedStatement.setInt(1, getNextSerialValue(conn, "stock_movement", "id"));
+                if (stockMovement.getId() == null) {
+                    stockMovement.setId(newIds[i++]);
                 }
-                preparedStatement.setInt(2, ingredient.getId());
+                stockMovement.setIdIngredient(ingredientId);
+                preparedStatement.setInt(1, stockMovement.getId());
+                preparedStatement.setInt(2, ingredientId);
                 preparedStatement.setDouble(3, stockMovement.getValue().getQuantity());
                 preparedStatement.setObject(4, stockMovement.getType());
                 preparedStatement.setObject(5, stockMovement.getValue().getUnit());
                 preparedStatement.setTimestamp(6, Timestamp.from(stockMovement.getCreationDatetime()));
                 preparedStatement.addBatch();
             }
-            preparedStatement.executeBatch();
+            int[] insertedRows = preparedStatement.executeBatch();
+
+            // Movements already saved are skipped by "on conflict", they must not be counted twice
+            for (int row = 0; row < insertedRows.length; row++) {
+                if (insertedRows[row] != 0) {
+                    summary.add(stockMovementList.get(row));
+                }
+            }
+            afterStockMovementsWritten(conn, summary);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Keeps the derived stock data in line with movements just written, inside the same transaction.
+     */
+    private void afterStockMovementsWritten(Connection conn, StockMovementSummary summary) throws SQLException {
+        invalidateStockCheckpoints(conn, summary.getEarliestByIngredient());
+        updateDailyRollups(conn, summary.getDailyTotals());
+    }
+
+    /**
+     * Commits the transaction that wrote the movements of {@code summary}, then publishes them. Both happen
+     * under the publication read lock, see {@link #seedFromDailyConsumption}.
+     */
+    private void commitStockMovements(Connection conn, StockMovementSummary summary) throws SQLException {
+        boolean announced = liveStock != null && !summary.isEmpty();
+        stockMovementPublication.readLock().lock();
+        try {
+            if (announced) {
+                liveStock.beginApply(summary);
+            }
+            try {
+                conn.commit();
+            } catch (SQLException e) {
+                if (announced) {
+                    liveStock.abortApply(summary);
+                }
+                throw e;
+            }
+            afterStockMovementsCommitted(summary);
+        } finally {
+            stockMovementPublication.readLock().unlock();
+        }
+    }
+
+    /**
+     * Publishes movements to the in-memory state once their transaction has committed.
+     */
+    private void afterStockMovementsCommitted(StockMovementSummary summary) {
+        if (summary.isEmpty()) {
+            return;
+        }
+        if (liveStock != null) {
+            liveStock.apply(summary);
+        }
+        for (Consumer<StockMovementSummary> listener : stockMovementListeners) {
+            listener.accept(summary);
+        }
+    }
+
+    /**
+     * Registers a callback receiving the summary of the movements written here, after their commit.
+     */
+    void addStockMovementListener(Consumer<StockMovementSummary> listener) {
+        stockMovementListeners.add(listener);
+    }
+
+    StockIngestionReport copyStockMovements(Stream<StockMovement> stockMovements) {
+        return copyStockMovements(stockMovements.iterator());
+    }
+
+    /**
+     * Streams IN/OUT movements into stock_movement through COPY in a single transaction. Every movement must
+     * carry its ingredient id; ids are assigned here. An invalid movement aborts the whole ingestion.
+     */
+    StockIngestionReport copyStockMovements(Iterator<StockMovement> stockMovements) {
+        long start = System.nanoTime();
+        try (Connection conn = dbConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn("""
+                    COPY stock_movement (id, id_ingredient, quantity, type, unit, creation_datetime)
+                    FROM STDIN WITH (FORMAT csv)""");
+            StockMovementSummary summary = new StockMovementSummary();
+            try {
+                StringBuilder rows = new StringBuilder();
+                int[] ids = new int[0];
+                int nextId = 0;
+                long rowNumber = 0;
+                while (stockMovements.hasNext()) {
+                    StockMovement stockMovement = stockMovements.next();
+                    rowNumber++;
+                    validateStockMovement(stockMovement, rowNumber);
+                    if (nextId == ids.length) {
+                        ids = idAllocator.nextIds(conn, "stock_movement", COPY_ID_BLOCK_SIZE);
+                        nextId = 0;
+                    }
+                    stockMovement.setId(ids[nextId++]);
+                    rows.append(stockMovement.getId()).append(',')
+                            .append(stockMovement.getIdIngredient()).append(',')
+                            .append(stockMovement.getValue().getQuantity()).append(',')
+                            .append(stockMovement.getType()).append(',')
+                            .append(stockMovement.getValue().getUnit()).append(',')
+                            .append(Timestamp.from(stockMovement.getCreationDatetime())).append('\n');
+                    summary.add(stockMovement);
+                    if (rows.length() >= COPY_BUFFER_SIZE) {
+                        writeToCopy(copyIn, rows);
+                    }
+                }
+                writeToCopy(copyIn, rows);
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+            afterStockMovementsWritten(conn, summary);
+            commitStockMovements(conn, summary);
+            return new StockIngestionReport(summary.getCount(), System.nanoTime() - start);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Reads {@code id_ingredient,quantity,type,unit,creation_datetime} lines, with an optional header, and
+     * ingests them with {@link #copyStockMovements(Iterator)}. Datetimes are ISO instants or local
+     * {@code yyyy-MM-dd HH:mm[:ss]} values.
+     */
+    StockIngestionReport copyStockMovementsFromCsv(InputStream csv) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8));
+        Iterator<StockMovement> stockMovements = new Iterator<>() {
+            private long lineNumber = 0;
+            private String nextLine = readLine(true);
+
+            @Override
+            public boolean hasNext() {
+                return nextLine != null;
+            }
+
+            @Override
+            public StockMovement next() {
+                if (nextLine == null) {
+                    throw new NoSuchElementException();
+                }
+                String line = nextLine;
+                long currentLine = lineNumber;
+                nextLine = readLine(false);
+                return parseStockMovement(line, currentLine);
+            }
+
+            private String readLine(boolean first) {
+                try {
+                    String line;
+                    do {
+                        line = reader.readLine();
+                        lineNumber++;
+                    } while (line != null && line.isBlank());
+                    if (first && line != null && line.startsWith("id_ingredient")) {
+                        return readLine(false);
+                    }
+                    return line;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return copyStockMovements(stockMovements);
+    }
+
+    private StockMovement parseStockMovement(String line, long lineNumber) {
+        String[] columns = line.split(",", -1);
+        if (columns.length != 5) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": expected 5 columns but got " + columns.length);
+        }
+        try {
+            StockValue value = new StockValue();
+            value.setQuantity(Double.parseDouble(columns[1].trim()));
+            value.setUnit(Unit.valueOf(columns[3].trim()));
+            StockMovement stockMovement = new StockMovement();
+            stockMovement.setIdIngredient(Integer.parseInt(columns[0].trim()));
+            stockMovement.setType(MovementTypeEnum.valueOf(columns[2].trim()));
+            stockMovement.setValue(value);
+            stockMovement.setCreationDatetime(parseDatetime(columns[4].trim()));
+            return stockMovement;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Instant parseDatetime(String value) {
+        if (value.endsWith("Z") || value.contains("+")) {
+            return Instant.parse(value);
+        }
+        String isoValue = value.replace(' ', 'T');
+        if (isoValue.length() == "yyyy-MM-ddTHH:mm".length()) {
+            isoValue = isoValue + ":00";
+        }
+        return LocalDateTime.parse(isoValue).atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    private void validateStockMovement(StockMovement stockMovement, long rowNumber) {
+        StockValue value = stockMovement.getValue();
+        if (stockMovement.getIdIngredient() == null || stockMovement.getType() == null
+                || stockMovement.getCreationDatetime() == null || value == null || value.getUnit() == null
+                || value.getQuantity() == null || !(value.getQuantity() > 0) || value.getQuantity().isInfinite()) {
+            throw new IllegalArgumentException("Invalid stock movement at row " + rowNumber + ": " + stockMovement);
+        }
+    }
+
+    private void writeToCopy(CopyIn copyIn, StringBuilder rows) throws SQLException {
+        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        rows.setLength(0);
+    }
+
+    /**
+     * Deletes the checkpoints the movements just written make stale. The shared advisory lock is held until
+     * the end of the transaction: a checkpoint being written either committed before it was granted, and is
+     * then visible to the delete, or waits for this transaction and reads its movements.
+     */
+    private void invalidateStockCheckpoints(Connection conn, Map<Integer, Instant> earliestByIngredient) throws SQLException {
+        if (earliestByIngredient.isEmpty()) {
+            return;
+        }
+        lockStockCheckpoints(conn, "pg_advisory_xact_lock_shared");
+        Integer[] ingredientIds = earliestByIngredient.keySet().toArray(new Integer[0]);
+        Timestamp[] from = new Timestamp[ingredientIds.length];
+        for (int i = 0; i < ingredientIds.length; i++) {
+            from[i] = Timestamp.from(earliestByIngredient.get(ingredientIds[i]));
+        }
+        try (PreparedStatement ps = conn.prepareStatement("""
+                delete from stock_checkpoint c
+                using unnest(?::int[], ?::timestamp[]) as m(id_ingredient, creation_datetime)
+                where c.id_ingredient = m.id_ingredient
+                  and c.checkpoint_datetime >= m.creation_datetime""")) {
+            ps.setArray(1, conn.createArrayOf("int4", ingredientIds));
+            ps.setArray(2, conn.createArrayOf("timestamp", from));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Adds the IN/OUT totals of the movements just written to their day's rollup rows.
+     */
+    private void updateDailyRollups(Connection conn, Map<StockMovementSummary.DailyKey, long[]> dailyTotals)
+            throws SQLException {
+        if (dailyTotals.isEmpty()) {
+            return;
+        }
+        int size = dailyTotals.size();
+        Integer[] ingredientIds = new Integer[size];
+        String[] units = new String[size];
+        String[] days = new String[size];
+        BigDecimal[] totalsIn = new BigDecimal[size];
+        BigDecimal[] totalsOut = new BigDecimal[size];
+        Integer[] counts = new Integer[size];
+        int i = 0;
+        for (Map.Entry<StockMovementSummary.DailyKey, long[]> entry : dailyTotals.entrySet()) {
+            ingredientIds[i] = entry.getKey().idIngredient();
+            units[i] = entry.getKey().unit().name();
+            days[i] = entry.getKey().day().toString();
+            totalsIn[i] = BigDecimal.valueOf(entry.getValue()[0], 2);
+            totalsOut[i] = BigDecimal.valueOf(entry.getValue()[1], 2);
+            counts[i] = (int) entry.getValue()[2];
+            i++;
+        }
+        // Rows are upserted in key order so that concurrent writers lock them in the same order
+        try (PreparedStatement ps = conn.prepareStatement("""
+                insert into stock_daily_rollup as r (id_ingredient, unit, day, total_in, total_out, movement_count)
+                select id_ingredient, unit, day, total_in, total_out, movement_count
+                from unnest(?::int[], ?::unit[], ?::date[], ?::numeric[], ?::numeric[], ?::int[])
+                         as t(id_ingredient, unit, day, total_in, total_out, movement_count)
+                order by id_ingredient, day, unit
+                on conflict (id_ingredient, day, unit) do update
+                    set total_in       = r.total_in + excluded.total_in,
+                        total_out      = r.total_out + excluded.total_out,
+                        movement_count = r.movement_count + excluded.movement_count""")) {
+            ps.setArray(1, conn.createArrayOf("int4", ingredientIds));
+            ps.setArray(2, conn.createArrayOf("text", units));
+            ps.setArray(3, conn.createArrayOf("text", days));
+            ps.setArray(4, conn.createArrayOf("numeric", totalsIn));
+            ps.setArray(5, conn.createArrayOf("numeric", totalsOut));
+            ps.setArray(6, conn.createArrayOf("int4", counts));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Recomputes the daily rollups of the days from {@code from} to {@code to} included from stock_movement,
+     * e.g. to backfill days written before the rollups existed.
+     */
+    void rebuildDailyRollups(LocalDate from, LocalDate to) {
+        try (Connection conn = dbConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    delete from stock_daily_rollup where day between ? and ?""")) {
+                ps.setObject(1, from);
+                ps.setObject(2, to);
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    insert into stock_daily_rollup (id_ingredient, unit, day, total_in, total_out, movement_count)
+                    select id_ingredient, unit, creation_datetime::date,
+                           coalesce(sum(quantity) filter (where type = 'IN'), 0),
+                           coalesce(sum(quantity) filter (where type = 'OUT'), 0),
+                           count(*)
+                    from stock_movement
+                    where creation_datetime >= ? and creation_datetime < ?
+                      and id_ingredient is not null and unit is not null
+                    group by id_ingredient, unit, creation_datetime::date""")) {
+                ps.setObject(1, from.atStartOfDay());
+                ps.setObject(2, to.plusDays(1).atStartOfDay());
+                ps.executeUpdate();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Rebuilds the rollups of every day that has movements.
+     */
+    void rebuildDailyRollups() {
+        LocalDate firstDay;
+        LocalDate lastDay;
+        try (Connection conn = dbConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement("""
+                     select min(creation_datetime)::date as first_day, max(creation_datetime)::date as last_day
+                     from stock_movement""");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            firstDay = rs.getObject("first_day", LocalDate.class);
+            lastDay = rs.getObject("last_day", LocalDate.class);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        if (firstDay != null) {
+            rebuildDailyRollups(firstDay, lastDay);
+        }
+    }
+
+    /**
+     * Daily IN/OUT totals of every ingredient from {@code from} to {@code to} included, read from the
+     * rollups with one range scan. Each list is in day order; days without movement are absent.
+     */
+    Map<Integer, List<DailyConsumption>> getDailyConsumption(LocalDate from, LocalDate to) {
+        try (Connection conn = dbConnection.getConnection()) {
+            return getDailyConsumption(conn, from, to);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads {@link #getDailyConsumption(LocalDate, LocalDate)} and hands it to {@code seed} while no movement
+     * written here sits between its commit and its listeners: every movement published before {@code seed}
+     * returns is in the result, and every later one is not. The connection is taken before the lock, so
+     * writers waiting on the lock cannot starve the query of a connection.
+     */
+    void seedFromDailyConsumption(LocalDate from, LocalDate to, Consumer<Map<Integer, List<DailyConsumption>>> seed) {
+        try (Connection conn = dbConnection.getConnection()) {
+            stockMovementPublication.writeLock().lock();
+            try {
+                seed.accept(getDailyConsumption(conn, from, to));
+            } finally {
+                stockMovementPublication.writeLock().unlock();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Map<Integer, List<DailyConsumption>> getDailyConsumption(Connection conn, LocalDate from, LocalDate to)
+            throws SQLException {
+        Map<Integer, List<DailyConsumption>> consumption = new TreeMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("""
+                     select id_ingredient, unit, day, total_in, total_out, movement_count
+                     from stock_daily_rollup
+                     where day between ? and ?
+                     order by day, id_ingredient, unit""")) {
+            ps.setObject(1, from);
+            ps.setObject(2, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumption.computeIfAbsent(rs.getInt("id_ingredient"), id -> new ArrayList<>())
+                            .add(new DailyConsumption(rs.getInt("id_ingredient"), Unit.valueOf(rs.getString("unit")),
+                                    rs.getObject("day", LocalDate.class), rs.getDouble("total_in"),
+                                    rs.getDouble("total_out"), rs.getInt("movement_count")));
+                }
+            }
+            return consumption;
+        }
+    }
+
+    /**
+     * The 12 months ending with {@code lastDay}.
+     */
+    Map<Integer, List<DailyConsumption>> getYearlyConsumption(LocalDate lastDay) {
+        return getDailyConsumption(lastDay.minusYears(1).plusDays(1), lastDay);
+    }
+
+    /**
+     * Writes the balance of every ingredient and unit at {@code at}, starting from the previous checkpoint.
+     */
+    void writeStockCheckpoint(Instant at) {
+        try (Connection conn = dbConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            writeStockCheckpoint(conn, at);
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes one checkpoint at the end of each day between {@code from} and {@code to}, each one built
+     * from the previous, in a single transaction.
+     */
+    void compactDailyStockCheckpoints(LocalDate from, LocalDate to) {
+        // The end of today is still in the future, movements can yet be written before it
+        LocalDate yesterday = LocalDate.now(ZoneId.systemDefault()).minusDays(1);
+        if (to.isAfter(yesterday)) {
+            to = yesterday;
+        }
+        try (Connection conn = dbConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                writeStockCheckpoint(conn, day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeStockCheckpoint(Connection conn, Instant at) throws SQLException {
+        lockStockCheckpoints(conn, "pg_advisory_xact_lock");
+        try (PreparedStatement ps = conn.prepareStatement("""
+                insert into stock_checkpoint (id_ingredient, unit, checkpoint_datetime, quantity)
+                select i.id, b.unit, ?::timestamp, sum(b.quantity)
+                from ingredient i
+                         left join lateral (select max(c.checkpoint_datetime) as checkpoint_datetime
+                                            from stock_checkpoint c
+                                            where c.id_ingredient = i.id
+                                              and c.checkpoint_datetime <= ?) cp on true
+                         cross join lateral (select c.unit, c.quantity
+                                             from stock_checkpoint c
+                                             where c.id_ingredient = i.id
+                                               and c.checkpoint_datetime = cp.checkpoint_datetime
+                                             union all
+                                             select m.unit,
+                                                    case m.type when 'IN' then m.quantity when 'OUT' then -m.quantity end
+                                             from stock_movement m
+                                             where m.id_ingredient = i.id
+                                               and m.unit is not null
+                                               and m.quantity is not null
+                                               and m.type is not null
+                                               and m.creation_datetime > coalesce(cp.checkpoint_datetime, '-infinity')
+                                               and m.creation_datetime <= ?) b
+                group by i.id, b.unit
+                on conflict (id_ingredient, checkpoint_datetime, unit) do update set quantity = excluded.quantity""")) {
+            Timestamp timestamp = Timestamp.from(at);
+            ps.setTimestamp(1, timestamp);
+            ps.setTimestamp(2, timestamp);
+            ps.setTimestamp(3, timestamp);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Takes the checkpoint advisory lock until the end of the transaction: shared by movement writers,
+     * exclusive for checkpoint writers.
+     */
+    private void lockStockCheckpoints(Connection conn, String lockFunction) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("select " + lockFunction + "(?)")) {
+            ps.setLong(1, STOCK_CHECKPOINT_LOCK);
+            ps.executeQuery().close();
+        }
+    }
+
 
     Ingredient findIngredientById(Integer id) {
-        DBConnection dbConnection = new DBConnection();
         try (Connection connection = dbConnection.getConnection()) {
-            PreparedStatement preparedStatement = connection.prepareStatement("select id, name, price, category from ingredient where id = ?;");
+            return findIngredientById(connection, id);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Ingredient findIngredientById(Connection connection, Integer id) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("select id, name, price, category from ingredient where id = ?;")) {
             preparedStatement.setInt(1, id);
             ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -172,46 +894,350 @@ public class DataRetriever {
                 String name = resultSet.getString("name");
                 CategoryEnum category = CategoryEnum.valueOf(resultSet.getString("category"));
                 Double price = resultSet.getDouble("price");
-                return new Ingredient(idIngredient, name, category, price, findStockMovementsByIngredientId(idIngredient));
+                return new Ingredient(idIngredient, name, category, price, findStockMovementsByIngredientId(connection, idIngredient));
             }
             throw new RuntimeException("Ingredient not found " + id);
+        }
+    }
+
+    Map<Integer, Ingredient> findIngredientsByIds(Collection<Integer> ids) {
+        try (Connection connection = dbConnection.getConnection()) {
+            return findIngredientsByIds(connection, ids);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private Map<Integer, Ingredient> findIngredientsByIds(Connection connection, Collection<Integer> ids) throws SQLException {
+        Map<Integer, Ingredient> ingredients = new LinkedHashMap<>();
+        if (ids.isEmpty()) {
+            return ingredients;
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement("""
+                select id, name, price, category from ingredient where id = any(?) order by id;""")) {
+            preparedStatement.setArray(1, connection.createArrayOf("int4", ids.toArray()));
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                Ingredient ingredient = new Ingredient();
+                ingredient.setId(resultSet.getInt("id"));
+                ingredient.setName(resultSet.getString("name"));
+                ingredient.setCategory(CategoryEnum.valueOf(resultSet.getString("category")));
+                ingredient.setPrice(resultSet.getDouble("price"));
+                ingredients.put(ingredient.getId(), ingredient);
+            }
+        }
+        Map<Integer, List<StockMovement>> stockMovements = findStockMovementsByIngredientIds(connection, ingredients.keySet());
+        ingredients.forEach((idIngredient, ingredient) ->
+                ingredient.setStockMovementList(stockMovements.getOrDefault(idIngredient, new ArrayList<>())));
+        return ingredients;
+    }
+
+    private Map<Integer, List<StockMovement>> findStockMovementsByIngredientIds(Connection connection, Collection<Integer> idIngredients)
+            throws SQLException {
+        Map<Integer, List<StockMovement>> stockMovements = new HashMap<>();
+        if (idIngredients.isEmpty()) {
+            return stockMovements;
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                """
+                        select id_ingredient, id, quantity, unit, type, creation_datetime
+                        from stock_movement
+                        where stock_movement.id_ingredient = any(?)
+                        order by id_ingredient, creation_datetime, id;
+                        """)) {
+            preparedStatement.setArray(1, connection.createArrayOf("int4", idIngredients.toArray()));
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                stockMovements.computeIfAbsent(resultSet.getInt("id_ingredient"), idIngredient -> new ArrayList<>())
+                        .add(mapStockMovement(resultSet));
+            }
+            return stockMovements;
+        }
+    }
+
     List<StockMovement> findStockMovementsByIngredientId(Integer id) {
+        try (Connection connection = dbConnection.getConnection()) {
+            return findStockMovementsByIngredientId(connection, id);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-        DBConnection dbConnection = new DBConnection();
-        Connection connection = dbConnection.getConnection();
+    private List<StockMovement> findStockMovementsByIngredientId(Connection connection, Integer id) throws SQLException {
         List<StockMovement> stockMovementList = new ArrayList<>();
-        try {
-            PreparedStatement preparedStatement = connection.prepareStatement(
-                    """
-                            select id, quantity, unit, type, creation_datetime
-                            from stock_movement
-                            where stock_movement.id_ingredient = ?;
-                            """);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                """
+                        select id, id_ingredient, quantity, unit, type, creation_datetime
+                        from stock_movement
+                        where stock_movement.id_ingredient = ?;
+                        """)) {
             preparedStatement.setInt(1, id);
             ResultSet resultSet = preparedStatement.executeQuery();
             while (resultSet.next()) {
-                StockMovement stockMovement = new StockMovement();
-                stockMovement.setId(resultSet.getInt("id"));
-                stockMovement.setType(MovementTypeEnum.valueOf(resultSet.getString("type")));
-                stockMovement.setCreationDatetime(resultSet.getTimestamp("creation_datetime").toInstant());
+                stockMovementList.add(mapStockMovement(resultSet));
+            }
+            return stockMovementList;
+        }
+    }
+
+    StockValue getStockValueAt(Integer idIngredient, Instant t) {
+        return getStockValuesAt(List.of(idIngredient), t).get(idIngredient);
+    }
+
+    Map<Integer, StockValue> getStockValuesAt(Collection<Integer> idIngredients, Instant t) {
+        try (Connection connection = dbConnection.getConnection()) {
+            return getStockValuesAt(connection, idIngredients, t);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
+    /**
+     * Same result as {@link Ingredient#getStockValueAt(Instant)} without loading the movements: ingredients
+     * without movement are absent from the map, and one with movements in several units is rejected.
+     * The balance starts from the latest checkpoint at or before {@code t}; units are taken from the latest
+     * checkpoint and the movements after it, so the multiple unit check also stays bounded.
+     */
+    private Map<Integer, StockValue> getStockValuesAt(Connection connection, Collection<Integer> idIngredients, Instant t)
+            throws SQLException {
+        Map<Integer, StockValue> stockValues = new HashMap<>();
+        if (idIngredients.isEmpty()) {
+            return stockValues;
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement("""
+                select i.id_ingredient, b.unit, sum(b.quantity) as quantity
+                from unnest(?::int[]) as i(id_ingredient)
+                         left join lateral (select max(c.checkpoint_datetime) as checkpoint_datetime
+                                            from stock_checkpoint c
+                                            where c.id_ingredient = i.id_ingredient
+                                              and c.checkpoint_datetime <= ?) cp on true
+                         left join lateral (select max(c.checkpoint_datetime) as checkpoint_datetime
+                                            from stock_checkpoint c
+                                            where c.id_ingredient = i.id_ingredient) latest on true
+                         cross join lateral (select c.unit, c.quantity
+                                             from stock_checkpoint c
+                                             where c.id_ingredient = i.id_ingredient
+                                               and c.checkpoint_datetime = cp.checkpoint_datetime
+                                             union all
+                                             select m.unit, case when m.type = 'IN' then m.quantity else -m.quantity end
+                                             from stock_movement m
+                                             where m.id_ingredient = i.id_ingredient
+                                               and m.creation_datetime > coalesce(cp.checkpoint_datetime, '-infinity')
+                                               and m.creation_datetime <= ?
+                                             union all
+                                             select c.unit, 0
+                                             from stock_checkpoint c
+                                             where c.id_ingredient = i.id_ingredient
+                                               and c.checkpoint_datetime = latest.checkpoint_datetime
+                                             union all
+                                             select m.unit, 0
+                                             from stock_movement m
+                                             where m.id_ingredient = i.id_ingredient
+                                               and m.creation_datetime > greatest(?::timestamp, coalesce(latest.checkpoint_datetime, '-infinity'))) b
+                group by i.id_ingredient, b.unit""")) {
+            Timestamp timestamp = Timestamp.from(t);
+            preparedStatement.setArray(1, connection.createArrayOf("int4", idIngredients.toArray()));
+            preparedStatement.setTimestamp(2, timestamp);
+            preparedStatement.setTimestamp(3, timestamp);
+            preparedStatement.setTimestamp(4, timestamp);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
                 StockValue stockValue = new StockValue();
                 stockValue.setQuantity(resultSet.getDouble("quantity"));
                 stockValue.setUnit(Unit.valueOf(resultSet.getString("unit")));
-                stockMovement.setValue(stockValue);
+                if (stockValues.put(resultSet.getInt("id_ingredient"), stockValue) != null) {
+                    throw new RuntimeException("Multiple unit found and not handle for conversion");
+                }
+            }
+            return stockValues;
+        }
+    }
+
+    InventoryValuation getInventoryValuation(Instant at) {
+        return getInventoryValuations(List.of(at)).get(0);
+    }
 
-                stockMovementList.add(stockMovement);
+    /**
+     * Values the stock at each of {@code instants} from a single scan of stock_movement: every movement is
+     * bucketed with width_bucket under the first requested instant it does not follow, and the buckets are
+     * then accumulated in instant order. Valuations come back in the order of {@code instants}.
+     */
+    List<InventoryValuation> getInventoryValuations(List<Instant> instants) {
+        if (instants.isEmpty()) {
+            return List.of();
+        }
+        List<Instant> sortedInstants = instants.stream().distinct().sorted().toList();
+        int n = sortedInstants.size();
+        // width_bucket counts the thresholds <= creation_datetime, shifting them by 1 µs keeps a movement
+        // created exactly at an instant in that instant's bucket
+        Timestamp[] thresholds = new Timestamp[n];
+        for (int k = 0; k < n; k++) {
+            thresholds[k] = Timestamp.from(sortedInstants.get(k).truncatedTo(ChronoUnit.MICROS).plus(1, ChronoUnit.MICROS));
+        }
+        List<List<IngredientValuation>> linesByInstant = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            linesByInstant.add(new ArrayList<>());
+        }
+
+        try (Connection conn = dbConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement("""
+                     select m.id_ingredient, i.name, i.category, i.price, m.unit,
+                            width_bucket(m.creation_datetime, ?::timestamp[]) as bucket,
+                            sum(case when m.type = 'IN' then m.quantity else -m.quantity end) as quantity
+                     from stock_movement m
+                              join ingredient i on i.id = m.id_ingredient
+                     where m.creation_datetime < ?
+                     group by m.id_ingredient, i.name, i.category, i.price, m.unit, bucket
+                     order by m.id_ingredient, m.unit, bucket""")) {
+            ps.setArray(1, conn.createArrayOf("timestamp", thresholds));
+            ps.setTimestamp(2, thresholds[n - 1]);
+            try (ResultSet rs = ps.executeQuery()) {
+                double[] deltas = new double[n];
+                boolean[] moved = new boolean[n];
+                IngredientValuation group = null;
+                while (rs.next()) {
+                    Unit unit = Unit.valueOf(rs.getString("unit"));
+                    int idIngredient = rs.getInt("id_ingredient");
+                    if (group == null || group.getIdIngredient() != idIngredient || group.getUnit() != unit) {
+                        addValuationLines(group, deltas, moved, linesByInstant);
+                        Arrays.fill(deltas, 0);
+                        Arrays.fill(moved, false);
+                        group = new IngredientValuation(idIngredient, rs.getString("name"),
+                                rs.getString("category") == null ? null : CategoryEnum.valueOf(rs.getString("category")),
+                                unit, null, rs.getObject("price") == null ? null : rs.getDouble("price"));
+                    }
+                    deltas[rs.getInt("bucket")] = rs.getDouble("quantity");
+                    moved[rs.getInt("bucket")] = true;
+                }
+                addValuationLines(group, deltas, moved, linesByInstant);
             }
-            dbConnection.closeConnection(connection);
-            return stockMovementList;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+
+        Map<Instant, InventoryValuation> valuations = new HashMap<>();
+        for (int k = 0; k < n; k++) {
+            valuations.put(sortedInstants.get(k), new InventoryValuation(sortedInstants.get(k), linesByInstant.get(k)));
+        }
+        return instants.stream().map(valuations::get).toList();
+    }
+
+    private static void addValuationLines(IngredientValuation group, double[] deltas, boolean[] moved,
+                                          List<List<IngredientValuation>> linesByInstant) {
+        if (group == null) {
+            return;
+        }
+        boolean movedYet = false;
+        double quantity = 0;
+        for (int k = 0; k < deltas.length; k++) {
+            movedYet |= moved[k];
+            quantity += deltas[k];
+            if (movedYet) {
+                linesByInstant.get(k).add(new IngredientValuation(group.getIdIngredient(), group.getName(),
+                        group.getCategory(), group.getUnit(), quantity, group.getPrice()));
+            }
+        }
+    }
+
+    Stream<StockMovement> streamStockMovementsByIngredientId(Integer id) {
+        return streamStockMovementsByIngredientId(id, null, null, null, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Streams the movements of an ingredient through a server-side cursor, {@code fetchSize} rows at a time.
+     * Null filters are ignored. The stream holds a pooled connection until it is closed.
+     */
+    Stream<StockMovement> streamStockMovementsByIngredientId(Integer id, Instant from, Instant to,
+                                                             MovementTypeEnum type, int fetchSize) {
+        StringBuilder sql = new StringBuilder("""
+                select id, id_ingredient, quantity, unit, type, creation_datetime
+                from stock_movement
+                where id_ingredient = ?""");
+        if (from != null) {
+            sql.append(" and creation_datetime >= ?");
+        }
+        if (to != null) {
+            sql.append(" and creation_datetime <= ?");
+        }
+        if (type != null) {
+            sql.append(" and type = ?::movement_type");
+        }
+        sql.append(" order by creation_datetime, id");
+
+        Connection connection = dbConnection.getConnection();
+        try {
+            connection.setReadOnly(true);
+            connection.setAutoCommit(false);
+            PreparedStatement preparedStatement = connection.prepareStatement(sql.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(fetchSize);
+            int index = 1;
+            preparedStatement.setInt(index++, id);
+            if (from != null) {
+                preparedStatement.setTimestamp(index++, Timestamp.from(from));
+            }
+            if (to != null) {
+                preparedStatement.setTimestamp(index++, Timestamp.from(to));
+            }
+            if (type != null) {
+                preparedStatement.setString(index, type.name());
+            }
+            ResultSet resultSet = preparedStatement.executeQuery();
+
+            Spliterator<StockMovement> cursor = new Spliterators.AbstractSpliterator<>(
+                    Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super StockMovement> action) {
+                    try {
+                        if (!resultSet.next()) {
+                            return false;
+                        }
+                        action.accept(mapStockMovement(resultSet));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            return StreamSupport.stream(cursor, false).onClose(() -> {
+                try {
+                    resultSet.close();
+                    preparedStatement.close();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    dbConnection.closeConnection(connection);
+                }
+            });
+        } catch (SQLException e) {
+            dbConnection.closeConnection(connection);
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            dbConnection.closeConnection(connection);
+            throw e;
+        }
+    }
+
+    void forEachStockMovement(Integer id, Instant from, Instant to, MovementTypeEnum type,
+                              Consumer<StockMovement> consumer) {
+        try (Stream<StockMovement> stockMovements =
+                     streamStockMovementsByIngredientId(id, from, to, type, DEFAULT_FETCH_SIZE)) {
+            stockMovements.forEach(consumer);
+        }
+    }
+
+    private StockMovement mapStockMovement(ResultSet resultSet) throws SQLException {
+        StockMovement stockMovement = new StockMovement();
+        stockMovement.setId(resultSet.getInt("id"));
+        stockMovement.setIdIngredient(resultSet.getInt("id_ingredient"));
+        stockMovement.setType(MovementTypeEnum.valueOf(resultSet.getString("type")));
+        stockMovement.setCreationDatetime(resultSet.getTimestamp("creation_datetime").toInstant());
+
+        StockValue stockValue = new StockValue();
+        stockValue.setQuantity(resultSet.getDouble("quantity"));
+        stockValue.setUnit(Unit.valueOf(resultSet.getString("unit")));
+        stockMovement.setValue(stockValue);
+        return stockMovement;
     }
 
 
@@ -226,14 +1252,14 @@ public class DataRetriever {
                     RETURNING id
                 """;
 
-        try (Connection conn = new DBConnection().getConnection()) {
+        try (Connection conn = dbConnection.getConnection()) {
             conn.setAutoCommit(false);
             Integer dishId;
             try (PreparedStatement ps = conn.prepareStatement(upsertDishSql)) {
                 if (toSave.getId() != null) {
                     ps.setInt(1, toSave.getId());
                 } else {
-                    ps.setInt(1, getNextSerialValue(conn, "dish", "id"));
+                    ps.setInt(1, idAllocator.nextId(conn, "dish"));
                 }
                 if (toSave.getPrice() != null) {
                     ps.setDouble(2, toSave.getPrice());
@@ -248,50 +1274,86 @@ public class DataRetriever {
                 }
             }
 
-            List<DishIngredient> newDishIngredients = toSave.getDishIngredients();
-            detachIngredients(conn, newDishIngredients);
-            attachIngredients(conn, newDishIngredients);
+            if (toSave.getDishIngredients() != null) {
+                syncDishIngredients(conn, dishId, toSave.getDishIngredients());
+            }
+            publishCatalogChange(conn, CatalogChangeListener.DISH_PREFIX, List.of(dishId));
 
             conn.commit();
-            return findDishById(dishId);
+            dishCache.invalidate(dishId);
+            return findDishById(conn, dishId);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
     public List<Ingredient> createIngredients(List<Ingredient> newIngredients) {
+        return createIngredients(newIngredients, DEFAULT_CREATE_CHUNK_SIZE);
+    }
+
+    /**
+     * Inserts the ingredients {@code chunkSize} rows per statement, each chunk bound as column arrays and
+     * unnested server side. Missing ids are reserved in one round trip and set on the given objects.
+     */
+    public List<Ingredient> createIngredients(List<Ingredient> newIngredients, int chunkSize) {
         if (newIngredients == null || newIngredients.isEmpty()) {
             return List.of();
         }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
         List<Ingredient> savedIngredients = new ArrayList<>();
-        DBConnection dbConnection = new DBConnection();
-        Connection conn = dbConnection.getConnection();
-        try {
+        try (Connection conn = dbConnection.getConnection()) {
             conn.setAutoCommit(false);
             String insertSql = """
                         INSERT INTO ingredient (id, name, category, price)
-                        VALUES (?, ?, ?::ingredient_category, ?)
+                        SELECT id, name, category, price
+                        FROM unnest(?::int[], ?::text[], ?::ingredient_category[], ?::float8[]::numeric[])
+                                 WITH ORDINALITY AS new_ingredient(id, name, category, price, position)
+                        ORDER BY position
                         RETURNING id
                     """;
+            int missingIds = (int) newIngredients.stream().filter(ingredient -> ingredient.getId() == null).count();
+            int[] reservedIds = idAllocator.nextIds(conn, "ingredient", missingIds);
+            int nextReservedId = 0;
             try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
-                for (Ingredient ingredient : newIngredients) {
-                    if (ingredient.getId() != null) {
-                        ps.setInt(1, ingredient.getId());
-                    } else {
-                        ps.setInt(1, getNextSerialValue(conn, "ingredient", "id"));
+                for (int from = 0; from < newIngredients.size(); from += chunkSize) {
+                    List<Ingredient> chunk = newIngredients.subList(from, Math.min(from + chunkSize, newIngredients.size()));
+                    Integer[] ids = new Integer[chunk.size()];
+                    String[] names = new String[chunk.size()];
+                    String[] categories = new String[chunk.size()];
+                    Double[] prices = new Double[chunk.size()];
+                    for (int i = 0; i < chunk.size(); i++) {
+                        Ingredient ingredient = chunk.get(i);
+                        ids[i] = ingredient.getId() != null ? ingredient.getId() : reservedIds[nextReservedId++];
+                        names[i] = ingredient.getName();
+                        categories[i] = ingredient.getCategory() == null ? null : ingredient.getCategory().name();
+                        prices[i] = ingredient.getPrice();
                     }
-                    ps.setString(2, ingredient.getName());
-                    ps.setString(3, ingredient.getCategory().name());
-                    ps.setDouble(4, ingredient.getPrice());
+                    ps.setArray(1, conn.createArrayOf("int4", ids));
+                    ps.setArray(2, conn.createArrayOf("text", names));
+                    ps.setArray(3, conn.createArrayOf("text", categories));
+                    ps.setArray(4, conn.createArrayOf("float8", prices));
 
+                    Set<Integer> returnedIds = new HashSet<>();
                     try (ResultSet rs = ps.executeQuery()) {
-                        rs.next();
-                        int generatedId = rs.getInt(1);
-                        ingredient.setId(generatedId);
+                        while (rs.next()) {
+                            returnedIds.add(rs.getInt(1));
+                        }
+                    }
+                    for (int i = 0; i < chunk.size(); i++) {
+                        if (!returnedIds.contains(ids[i])) {
+                            throw new SQLException("Ingredient " + names[i] + " was not inserted with id " + ids[i]);
+                        }
+                        Ingredient ingredient = chunk.get(i);
+                        ingredient.setId(ids[i]);
                         savedIngredients.add(ingredient);
                     }
                 }
+                publishCatalogChange(conn, CatalogChangeListener.INGREDIENT_PREFIX,
+                        savedIngredients.stream().map(Ingredient::getId).toList());
                 conn.commit();
+                invalidateDishesUsingIngredients(savedIngredients.stream().map(Ingredient::getId).collect(Collectors.toSet()));
                 return savedIngredients;
             } catch (SQLException e) {
                 conn.rollback();
@@ -299,180 +1361,535 @@ public class DataRetriever {
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
-        } finally {
-            dbConnection.closeConnection(conn);
         }
     }
 
 
-    private void detachIngredients(Connection conn, List<DishIngredient> dishIngredients) {
-        Map<Integer, List<DishIngredient>> dishIngredientsGroupByDishId = dishIngredients.stream()
-                .collect(Collectors.groupingBy(dishIngredient -> dishIngredient.getDish().getId()));
-        dishIngredientsGroupByDishId.forEach((dishId, dishIngredientList) -> {
-            try (PreparedStatement ps = conn.prepareStatement(
-                    "DELETE FROM dish_ingredient where id_dish = ?")) {
-                ps.setInt(1, dishId);
-                ps.executeUpdate(); // TODO: must be a grouped by batch
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
+    /**
+     * Queues a notification for the other nodes' {@link CatalogChangeListener}. PostgreSQL only delivers it
+     * if the transaction commits; the ids are split over several payloads to stay under the 8000 byte limit.
+     */
+    private void publishCatalogChange(Connection conn, String prefix, Collection<Integer> ids) throws SQLException {
+        List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder(prefix);
+        for (Integer id : ids) {
+            if (payload.length() > MAX_NOTIFY_PAYLOAD_LENGTH) {
+                payloads.add(payload.toString());
+                payload.setLength(0);
+                payload.append(prefix);
             }
-        });
+            if (payload.length() > prefix.length()) {
+                payload.append(',');
+            }
+            payload.append(id);
+        }
+        payloads.add(payload.toString());
+        try (PreparedStatement ps = conn.prepareStatement("select pg_notify(?, payload) from unnest(?::text[]) payload")) {
+            ps.setString(1, CatalogChangeListener.CHANNEL);
+            ps.setArray(2, conn.createArrayOf("text", payloads.toArray()));
+            ps.executeQuery().close();
+        }
+    }
+
+    void evictCachedDishes(Set<Integer> dishIds, Set<Integer> ingredientIds) {
+        dishCache.invalidateIf((idDish, dish) -> dishIds.contains(idDish) || dish.getDishIngredients().stream()
+                .anyMatch(dishIngredient -> ingredientIds.contains(dishIngredient.getIngredient().getId())));
+    }
+
+    private void invalidateDishesUsingIngredients(Set<Integer> ingredientIds) {
+        dishCache.invalidateIf((idDish, dish) -> dish.getDishIngredients().stream()
+                .anyMatch(dishIngredient -> ingredientIds.contains(dishIngredient.getIngredient().getId())));
     }
 
-    private void attachIngredients(Connection conn, List<DishIngredient> ingredients)
+    private static Dish copyDish(Dish source) {
+        Dish copy = new Dish();
+        copy.setId(source.getId());
+        copy.setName(source.getName());
+        copy.setDishType(source.getDishType());
+        copy.setPrice(source.getPrice());
+        List<DishIngredient> dishIngredients = new ArrayList<>();
+        for (DishIngredient sourceLine : source.getDishIngredients()) {
+            Ingredient sourceIngredient = sourceLine.getIngredient();
+            DishIngredient line = new DishIngredient();
+            line.setIngredient(new Ingredient(sourceIngredient.getId(), sourceIngredient.getName(),
+                    sourceIngredient.getCategory(), sourceIngredient.getPrice(), null));
+            line.setQuantity(sourceLine.getQuantity());
+            line.setUnit(sourceLine.getUnit());
+            dishIngredients.add(line);
+        }
+        copy.setDishIngredients(dishIngredients);
+        return copy;
+    }
+
+    /**
+     * Brings the stored recipe of the dish in line with {@code dishIngredients}: rows are matched on the
+     * ingredient, only changed quantities or units are updated, and just the missing or extra rows are
+     * inserted or deleted, so unchanged lines keep their id.
+     */
+    private void syncDishIngredients(Connection conn, int dishId, List<DishIngredient> dishIngredients)
             throws SQLException {
+        Map<Integer, List<StoredDishIngredient>> storedByIngredient = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("""
+                select id, id_ingredient, required_quantity, unit
+                from dish_ingredient
+                where id_dish = ?
+                order by id
+                """)) {
+            ps.setInt(1, dishId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    StoredDishIngredient stored = new StoredDishIngredient(rs.getInt("id"),
+                            rs.getObject("required_quantity") == null ? null : rs.getDouble("required_quantity"),
+                            rs.getString("unit") == null ? null : Unit.valueOf(rs.getString("unit")));
+                    storedByIngredient.computeIfAbsent(rs.getInt("id_ingredient"), k -> new ArrayList<>()).add(stored);
+                }
+            }
+        }
 
-        if (ingredients == null || ingredients.isEmpty()) {
-            return;
+        List<DishIngredient> toInsert = new ArrayList<>();
+        Map<Integer, DishIngredient> toUpdate = new LinkedHashMap<>();
+        for (DishIngredient dishIngredient : dishIngredients) {
+            List<StoredDishIngredient> candidates = storedByIngredient.get(dishIngredient.getIngredient().getId());
+            if (candidates == null || candidates.isEmpty()) {
+                toInsert.add(dishIngredient);
+                continue;
+            }
+            StoredDishIngredient stored = candidates.remove(0);
+            if (!Objects.equals(stored.quantity(), dishIngredient.getQuantity()) || stored.unit() != dishIngredient.getUnit()) {
+                toUpdate.put(stored.id(), dishIngredient);
+            }
         }
-        String attachSql = """
-                    insert into dish_ingredient (id, id_ingredient, id_dish, required_quantity, unit)
-                    values (?, ?, ?, ?, ?::unit)
-                """;
+        List<Integer> toDelete = storedByIngredient.values().stream()
+                .flatMap(List::stream)
+                .map(StoredDishIngredient::id)
+                .toList();
 
-        try (PreparedStatement ps = conn.prepareStatement(attachSql)) {
-            for (DishIngredient dishIngredient : ingredients) {
-                ps.setInt(1, getNextSerialValue(conn, "dish_ingredient", "id"));
-                ps.setInt(2, dishIngredient.getIngredient().getId());
-                ps.setInt(3, dishIngredient.getDish().getId());
-                ps.setDouble(4, dishIngredient.getQuantity());
-                ps.setObject(5, dishIngredient.getUnit());
-                ps.addBatch(); // Can be substitute ps.executeUpdate() but bad performance
+        if (!toDelete.isEmpty()) {
+            try (PreparedStatement ps = conn.prepareStatement("delete from dish_ingredient where id = any(?)")) {
+                ps.setArray(1, conn.createArrayOf("int4", toDelete.toArray()));
+                ps.executeUpdate();
+            }
+        }
+        if (!toUpdate.isEmpty()) {
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    update dish_ingredient set required_quantity = ?, unit = ?::unit where id = ?""")) {
+                for (Map.Entry<Integer, DishIngredient> entry : toUpdate.entrySet()) {
+                    setRecipeLine(ps, 1, entry.getValue());
+                    ps.setInt(3, entry.getKey());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        if (!toInsert.isEmpty()) {
+            int[] ids = idAllocator.nextIds(conn, "dish_ingredient", toInsert.size());
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    insert into dish_ingredient (id, id_ingredient, id_dish, required_quantity, unit)
+                    values (?, ?, ?, ?, ?::unit)""")) {
+                int i = 0;
+                for (DishIngredient dishIngredient : toInsert) {
+                    ps.setInt(1, ids[i++]);
+                    ps.setInt(2, dishIngredient.getIngredient().getId());
+                    ps.setInt(3, dishId);
+                    setRecipeLine(ps, 4, dishIngredient);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
             }
-            ps.executeBatch();
         }
     }
 
-    private List<DishIngredient> findIngredientByDishId(Integer idDish) {
-        DBConnection dbConnection = new DBConnection();
-        Connection connection = dbConnection.getConnection();
+    private static void setRecipeLine(PreparedStatement ps, int firstIndex, DishIngredient dishIngredient)
+            throws SQLException {
+        if (dishIngredient.getQuantity() != null) {
+            ps.setDouble(firstIndex, dishIngredient.getQuantity());
+        } else {
+            ps.setNull(firstIndex, Types.NUMERIC);
+        }
+        ps.setString(firstIndex + 1, dishIngredient.getUnit() == null ? null : dishIngredient.getUnit().name());
+    }
+
+    private List<DishIngredient> findIngredientByDishId(Connection connection, Integer idDish) throws SQLException {
         List<DishIngredient> dishIngredients = new ArrayList<>();
-        try {
-            PreparedStatement preparedStatement = connection.prepareStatement(
-                    """
-                            select ingredient.id, ingredient.name, ingredient.price, ingredient.category, di.required_quantity, di.unit
-                            from ingredient join dish_ingredient di on di.id_ingredient = ingredient.id where id_dish = ?;
-                            """);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                """
+                        select ingredient.id, ingredient.name, ingredient.price, ingredient.category, di.required_quantity, di.unit
+                        from ingredient join dish_ingredient di on di.id_ingredient = ingredient.id where id_dish = ?;
+                        """)) {
             preparedStatement.setInt(1, idDish);
             ResultSet resultSet = preparedStatement.executeQuery();
             while (resultSet.next()) {
-                Ingredient ingredient = new Ingredient();
-                ingredient.setId(resultSet.getInt("id"));
-                ingredient.setName(resultSet.getString("name"));
-                ingredient.setPrice(resultSet.getDouble("price"));
-                ingredient.setCategory(CategoryEnum.valueOf(resultSet.getString("category")));
-
-                DishIngredient dishIngredient = new DishIngredient();
-                dishIngredient.setIngredient(ingredient);
-                dishIngredient.setQuantity(resultSet.getObject("required_quantity") == null ? null : resultSet.getDouble("required_quantity"));
-                dishIngredient.setUnit(Unit.valueOf(resultSet.getString("unit")));
-
-                dishIngredients.add(dishIngredient);
+                dishIngredients.add(mapDishIngredient(resultSet));
             }
-            dbConnection.closeConnection(connection);
             return dishIngredients;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
     }
 
+    private DishIngredient mapDishIngredient(ResultSet resultSet) throws SQLException {
+        Ingredient ingredient = new Ingredient();
+        ingredient.setId(resultSet.getInt("id"));
+        ingredient.setName(resultSet.getString("name"));
+        ingredient.setPrice(resultSet.getObject("price") == null ? null : resultSet.getDouble("price"));
+        ingredient.setCategory(CategoryEnum.valueOf(resultSet.getString("category")));
 
-    private String getSerialSequenceName(Connection conn, String tableName, String columnName)
-            throws SQLException {
+        DishIngredient dishIngredient = new DishIngredient();
+        dishIngredient.setIngredient(ingredient);
+        dishIngredient.setQuantity(resultSet.getObject("required_quantity") == null ? null : resultSet.getDouble("required_quantity"));
+        dishIngredient.setUnit(Unit.valueOf(resultSet.getString("unit")));
+        return dishIngredient;
+    }
 
-        String sql = "SELECT pg_get_serial_sequence(?, ?)";
 
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, tableName);
-            ps.setString(2, columnName);
+    //itooooooooooooooooooooooooooooooooooooooooooooooooooo
+    Order saveOrder(Order orderToSave) {
+    try (Connection conn = dbConnection.getConnection()) {
+        conn.setAutoCommit(false);
 
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getString(1);
-                }
-            }
+        StockMovementSummary summary = new StockMovementSummary();
+        OrderPlacementResult result = placeOrders(conn, List.of(orderToSave), OrderBatchMode.ALL_OR_NOTHING, summary).get(0);
+        if (!result.isAccepted()) {
+            throw result.toException();
         }
-        return null;
+
+        commitStockMovements(conn, summary);
+        return orderToSave;
+
+    } catch (SQLException e) {
+        throw new RuntimeException(e);
     }
+}
 
-    private int getNextSerialValue(Connection conn, String tableName, String columnName)
-            throws SQLException {
+    List<OrderPlacementResult> saveOrders(List<Order> ordersToSave) {
+        return saveOrders(ordersToSave, OrderBatchMode.ALL_OR_NOTHING);
+    }
+
+    /**
+     * Places several orders in one transaction, with one batched insert per table. Orders are applied by
+     * creation date then reference, each one checked against the stock left by those before it. With
+     * {@link OrderBatchMode#ALL_OR_NOTHING} a single rejected order rejects the whole batch; with
+     * {@link OrderBatchMode#BEST_EFFORT} only the rejected orders are left out. Results follow the input order.
+     */
+    List<OrderPlacementResult> saveOrders(List<Order> ordersToSave, OrderBatchMode mode) {
+        try (Connection conn = dbConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            StockMovementSummary summary = new StockMovementSummary();
+            List<OrderPlacementResult> results = placeOrders(conn, ordersToSave, mode, summary);
+            commitStockMovements(conn, summary);
+            return results;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-        String sequenceName = getSerialSequenceName(conn, tableName, columnName);
-        if (sequenceName == null) {
-            throw new IllegalArgumentException(
-                    "Any sequence found for " + tableName + "." + columnName
-            );
+    private List<OrderPlacementResult> placeOrders(Connection conn, List<Order> orders, OrderBatchMode mode,
+                                                   StockMovementSummary summary) throws SQLException {
+        Map<Order, OrderPlacementResult> results = new IdentityHashMap<>();
+        List<Order> validOrders = new ArrayList<>();
+        Set<String> references = new HashSet<>();
+        for (Order order : orders) {
+            String invalidReason = validateOrder(order, references);
+            if (invalidReason != null) {
+                results.put(order, new OrderPlacementResult(order, List.of(), invalidReason));
+            } else {
+                validOrders.add(order);
+            }
         }
-        updateSequenceNextValue(conn, tableName, columnName, sequenceName);
 
-        String nextValSql = "SELECT nextval(?)";
+        rejectExistingReferences(conn, validOrders, results);
 
-        try (PreparedStatement ps = conn.prepareStatement(nextValSql)) {
-            ps.setString(1, sequenceName);
+        // 1️⃣ Vérification du stock
+        List<DishOrder> allDishOrders = validOrders.stream()
+                .flatMap(order -> order.getDishOrderList().stream())
+                .toList();
+        Map<Integer, Map<Unit, Double>> totalRequiredQuantities = sumRequiredQuantities(allDishOrders);
+        lockIngredients(conn, totalRequiredQuantities.keySet());
+        Map<Integer, StockValue> stockValues = getStockValuesAt(conn, totalRequiredQuantities.keySet(), Instant.now());
+        Map<Integer, String> ingredientNames = getIngredientNames(allDishOrders);
+
+        List<Order> acceptedOrders = new ArrayList<>();
+        List<Order> applyOrder = validOrders.stream()
+                .sorted(Comparator.comparing(Order::getCreationDatetime).thenComparing(Order::getReference))
+                .toList();
+        for (Order order : applyOrder) {
+            Map<Integer, Map<Unit, Double>> requiredQuantities = sumRequiredQuantities(order.getDishOrderList());
+            List<StockShortage> shortages = findStockShortages(requiredQuantities, stockValues, ingredientNames);
+            if (shortages.isEmpty()) {
+                consumeStock(stockValues, requiredQuantities);
+                acceptedOrders.add(order);
+            }
+            results.put(order, new OrderPlacementResult(order, shortages));
+        }
+
+        if (mode == OrderBatchMode.ALL_OR_NOTHING && acceptedOrders.size() < orders.size()) {
+            for (Order order : acceptedOrders) {
+                results.put(order, new OrderPlacementResult(order, List.of(),
+                        "Batch rejected because at least one other order was rejected"));
+            }
+            acceptedOrders = List.of();
+        }
+
+        insertOrders(conn, acceptedOrders, summary);
+        return orders.stream().map(results::get).toList();
+    }
+
+    /**
+     * Cost, selling price and gross margin of every dish, or of the dishes of {@code dishType} when not null,
+     * aggregated by the database in one query.
+     */
+    List<DishProfitability> getMenuProfitability(DishTypeEnum dishType) {
+        try (Connection conn = dbConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement("""
+                     select d.id, d.name, d.dish_type, d.selling_price,
+                            coalesce(sum(di.required_quantity * i.price), 0) as cost,
+                            count(di.id) filter (where di.required_quantity is null) as undefined_quantities,
+                            count(di.id) filter (where di.required_quantity is not null and i.price is null) as undefined_prices
+                     from dish d
+                              left join dish_ingredient di on di.id_dish = d.id
+                              left join ingredient i on i.id = di.id_ingredient
+                     where ?::dish_type is null or d.dish_type = ?::dish_type
+                     group by d.id
+                     order by d.id""")) {
+            String type = dishType == null ? null : dishType.name();
+            ps.setString(1, type);
+            ps.setString(2, type);
+            List<DishProfitability> report = new ArrayList<>();
             try (ResultSet rs = ps.executeQuery()) {
-                rs.next();
-                return rs.getInt(1);
+                while (rs.next()) {
+                    List<String> issues = new ArrayList<>();
+                    Double sellingPrice = rs.getObject("selling_price") == null ? null : rs.getDouble("selling_price");
+                    if (sellingPrice == null) {
+                        issues.add(DishProfitability.UNDEFINED_SELLING_PRICE);
+                    }
+                    if (rs.getLong("undefined_quantities") > 0) {
+                        issues.add(DishProfitability.UNDEFINED_QUANTITY);
+                    }
+                    if (rs.getLong("undefined_prices") > 0) {
+                        issues.add(DishProfitability.UNDEFINED_INGREDIENT_PRICE);
+                    }
+                    boolean costKnown = rs.getLong("undefined_quantities") == 0 && rs.getLong("undefined_prices") == 0;
+                    report.add(new DishProfitability(rs.getInt("id"), rs.getString("name"),
+                            DishTypeEnum.valueOf(rs.getString("dish_type")), sellingPrice,
+                            costKnown ? rs.getDouble("cost") : null, issues));
+                }
             }
+            return report;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    private void updateSequenceNextValue(Connection conn, String tableName, String columnName, String sequenceName) throws SQLException {
-        String setValSql = String.format(
-                "SELECT setval('%s', (SELECT COALESCE(MAX(%s), 0) FROM %s))",
-                sequenceName, columnName, tableName
-        );
+    /**
+     * Same report as {@link #getMenuProfitability(DishTypeEnum)} computed in parallel over an already loaded
+     * catalog, e.g. {@link #findAllDishes()}.
+     */
+    static List<DishProfitability> computeMenuProfitability(Collection<Dish> dishes, DishTypeEnum dishType) {
+        return dishes.parallelStream()
+                .filter(dish -> dishType == null || dish.getDishType() == dishType)
+                .map(DishProfitability::of)
+                .sorted(Comparator.comparing(DishProfitability::getIdDish))
+                .toList();
+    }
 
-        try (PreparedStatement ps = conn.prepareStatement(setValSql)) {
-            ps.executeQuery();
+    /**
+     * Best selling dishes of the orders created in [{@code from}, {@code to}), ranked by quantity or revenue,
+     * {@code limit} per page. Pass the last row of a page as {@code after} to get the next one (keyset
+     * pagination on the ranking value then the dish id), or null for the first page.
+     */
+    List<DishSales> getTopDishes(Instant from, Instant to, DishSalesRanking ranking, int limit, DishSales after) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        String metric = ranking == DishSalesRanking.QUANTITY ? "quantity::numeric" : "coalesce(revenue, 0)";
+        String keyset = after == null ? "" : "where %1$s < ? or (%1$s = ? and id_dish > ?)".formatted(metric);
+        String sql = """
+                select id_dish, name, dish_type, quantity, revenue
+                from (select d.id as id_dish, d.name, d.dish_type,
+                             sum(dish_order.quantity) as quantity,
+                             sum(dish_order.quantity * d.selling_price) as revenue
+                      from "order" o
+                               join dish_order on dish_order.id_order = o.id
+                               join dish d on d.id = dish_order.id_dish
+                      where o.creation_datetime >= ? and o.creation_datetime < ?
+                      group by d.id) sales
+                %s
+                order by %s desc, id_dish
+                limit ?""".formatted(keyset, metric);
+        try (Connection conn = dbConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int index = 1;
+            ps.setTimestamp(index++, Timestamp.from(from));
+            ps.setTimestamp(index++, Timestamp.from(to));
+            if (after != null) {
+                BigDecimal afterValue = ranking == DishSalesRanking.QUANTITY
+                        ? BigDecimal.valueOf(after.getQuantity())
+                        : after.getRevenue() == null ? BigDecimal.ZERO : after.getRevenue();
+                ps.setBigDecimal(index++, afterValue);
+                ps.setBigDecimal(index++, afterValue);
+                ps.setInt(index++, after.getIdDish());
+            }
+            ps.setInt(index, limit);
+            List<DishSales> topDishes = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    topDishes.add(new DishSales(rs.getInt("id_dish"), rs.getString("name"),
+                            DishTypeEnum.valueOf(rs.getString("dish_type")), rs.getLong("quantity"),
+                            rs.getBigDecimal("revenue")));
+                }
+            }
+            return topDishes;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
     }
-    //itooooooooooooooooooooooooooooooooooooooooooooooooooo
-    Order saveOrder(Order orderToSave) {
-    DBConnection dbConnection = new DBConnection();
 
-    try (Connection conn = dbConnection.getConnection()) {
-        conn.setAutoCommit(false);
+    /**
+     * Sales of the orders created in [{@code from}, {@code to}) by hour of the day, index 0 to 23.
+     */
+    SalesTotal[] getHourlySalesHistogram(Instant from, Instant to) {
+        SalesTotal[] histogram = new SalesTotal[24];
+        Arrays.fill(histogram, new SalesTotal(0, 0, 0));
+        forEachSalesTotal(from, to, "extract(hour from o.creation_datetime)::int",
+                (hour, total) -> histogram[Integer.parseInt(hour)] = total);
+        return histogram;
+    }
 
-        // 1️⃣ Vérification du stock
-        for (DishOrder dishOrder : orderToSave.getDishOrderList()) {
-            Dish dish = dishOrder.getDish();
-            Integer orderedQuantity = dishOrder.getQuantity();
+    /**
+     * Sales of the orders created in [{@code from}, {@code to}) per dish type.
+     */
+    Map<DishTypeEnum, SalesTotal> getSalesByDishType(Instant from, Instant to) {
+        Map<DishTypeEnum, SalesTotal> salesByType = new EnumMap<>(DishTypeEnum.class);
+        forEachSalesTotal(from, to, "d.dish_type",
+                (dishType, total) -> salesByType.put(DishTypeEnum.valueOf(dishType), total));
+        return salesByType;
+    }
 
-            for (DishIngredient dishIngredient : dish.getDishIngredients()) {
-                Ingredient ingredient = findIngredientById(
-                        dishIngredient.getIngredient().getId()
-                );
+    private void forEachSalesTotal(Instant from, Instant to, String groupExpression,
+                                   BiConsumer<String, SalesTotal> consumer) {
+        try (Connection conn = dbConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement("""
+                     select %s as bucket,
+                            count(distinct o.id) as order_count,
+                            sum(dish_order.quantity) as quantity,
+                            coalesce(sum(dish_order.quantity * d.selling_price), 0) as revenue
+                     from "order" o
+                              join dish_order on dish_order.id_order = o.id
+                              join dish d on d.id = dish_order.id_dish
+                     where o.creation_datetime >= ? and o.creation_datetime < ?
+                     group by bucket""".formatted(groupExpression))) {
+            ps.setTimestamp(1, Timestamp.from(from));
+            ps.setTimestamp(2, Timestamp.from(to));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs.getString("bucket"), new SalesTotal(rs.getLong("order_count"),
+                            rs.getLong("quantity"), rs.getDouble("revenue")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-                double requiredQuantity =
-                        dishIngredient.getQuantity() * orderedQuantity;
+    /**
+     * Answers from the in-memory counters whether the order could be served, without touching the database.
+     * The answer is only as fresh as the last reconciliation for movements written by other processes;
+     * {@link #saveOrder(Order)} still checks the stock in the database before accepting.
+     */
+    List<StockShortage> findLiveStockShortages(Order order) {
+        if (liveStock == null) {
+            throw new IllegalStateException("No live stock configured");
+        }
+        Map<Integer, String> ingredientNames = getIngredientNames(order.getDishOrderList());
+        List<StockShortage> shortages = new ArrayList<>();
+        sumRequiredQuantities(order.getDishOrderList()).forEach((idIngredient, quantityByUnit) ->
+                quantityByUnit.forEach((unit, required) -> {
+                    if (!liveStock.hasEnough(idIngredient, unit, required)) {
+                        shortages.add(new StockShortage(idIngredient, ingredientNames.get(idIngredient), unit, required,
+                                liveStock.getQuantity(idIngredient, unit)));
+                    }
+                }));
+        return shortages;
+    }
 
-                StockValue stockValue = ingredient.getStockValueAt(Instant.now());
+    /**
+     * Rejects the orders whose reference is already taken. Concurrent inserts of the same reference are
+     * still stopped by the unique index.
+     */
+    private void rejectExistingReferences(Connection conn, List<Order> orders, Map<Order, OrderPlacementResult> results)
+            throws SQLException {
+        if (orders.isEmpty()) {
+            return;
+        }
+        Set<String> existingReferences = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement("""
+                select reference from "order" where reference = any(?)""")) {
+            ps.setArray(1, conn.createArrayOf("varchar", orders.stream().map(Order::getReference).toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    existingReferences.add(rs.getString("reference"));
+                }
+            }
+        }
+        orders.removeIf(order -> {
+            if (!existingReferences.contains(order.getReference())) {
+                return false;
+            }
+            results.put(order, new OrderPlacementResult(order, List.of(), "Reference " + order.getReference() + " already exists"));
+            return true;
+        });
+    }
 
-                if (stockValue == null || stockValue.getQuantity() < requiredQuantity) {
-                    throw new RuntimeException(
-                            "Stock insuffisant pour l'ingrédient : " + ingredient.getName()
-                    );
+    private String validateOrder(Order order, Set<String> references) {
+        if (order.getReference() == null || order.getCreationDatetime() == null) {
+            return "Missing reference or creation datetime";
+        }
+        if (!references.add(order.getReference())) {
+            return "Duplicate reference " + order.getReference() + " in the batch";
+        }
+        if (order.getDishOrderList() == null || order.getDishOrderList().isEmpty()) {
+            return "Order without dish";
+        }
+        for (DishOrder dishOrder : order.getDishOrderList()) {
+            if (dishOrder.getDish() == null || dishOrder.getQuantity() == null || dishOrder.getQuantity() <= 0) {
+                return "Invalid dish order line " + dishOrder;
+            }
+            if (dishOrder.getDish().getDishIngredients() == null) {
+                return "Dish without recipe " + dishOrder.getDish().getName();
+            }
+            for (DishIngredient dishIngredient : dishOrder.getDish().getDishIngredients()) {
+                if (dishIngredient.getQuantity() == null) {
+                    return "Some ingredients of " + dishOrder.getDish().getName() + " have undefined quantity";
                 }
             }
         }
+        return null;
+    }
+
+    /**
+     * Inserts the orders, their dish_order lines and the matching OUT movements with one batch per table,
+     * and sets the generated ids on the given objects.
+     */
+    private void insertOrders(Connection conn, List<Order> orders, StockMovementSummary summary) throws SQLException {
+        if (orders.isEmpty()) {
+            return;
+        }
 
-        // 2️⃣ Insertion de la commande
+        // 2️⃣ Insertion des commandes
         String insertOrderSql = """
                 insert into "order"(id, reference, creation_datetime)
                 values (?, ?, ?)
-                returning id
                 """;
 
-        Integer orderId;
+        int[] orderIds = idAllocator.nextIds(conn, "order", orders.size());
         try (PreparedStatement ps = conn.prepareStatement(insertOrderSql)) {
-            ps.setInt(1, getNextSerialValue(conn, "order", "id"));
-            ps.setString(2, orderToSave.getReference());
-            ps.setTimestamp(3, Timestamp.from(orderToSave.getCreationDatetime()));
-
-            ResultSet rs = ps.executeQuery();
-            rs.next();
-            orderId = rs.getInt(1);
+            int i = 0;
+            for (Order order : orders) {
+                order.setId(orderIds[i++]);
+                ps.setInt(1, order.getId());
+                ps.setString(2, order.getReference());
+                ps.setTimestamp(3, Timestamp.from(order.getCreationDatetime()));
+                ps.addBatch();
+            }
+            ps.executeBatch();
         }
 
         // 3️⃣ Insertion des dish_order
@@ -481,13 +1898,19 @@ public class DataRetriever {
                 values (?, ?, ?, ?)
                 """;
 
+        int dishOrderCount = orders.stream().mapToInt(order -> order.getDishOrderList().size()).sum();
+        int[] dishOrderIds = idAllocator.nextIds(conn, "dish_order", dishOrderCount);
         try (PreparedStatement ps = conn.prepareStatement(insertDishOrderSql)) {
-            for (DishOrder dishOrder : orderToSave.getDishOrderList()) {
-                ps.setInt(1, getNextSerialValue(conn, "dish_order", "id"));
-                ps.setInt(2, orderId);
-                ps.setInt(3, dishOrder.getDish().getId());
-                ps.setInt(4, dishOrder.getQuantity());
-                ps.addBatch();
+            int i = 0;
+            for (Order order : orders) {
+                for (DishOrder dishOrder : order.getDishOrderList()) {
+                    dishOrder.setId(dishOrderIds[i++]);
+                    ps.setInt(1, dishOrder.getId());
+                    ps.setInt(2, order.getId());
+                    ps.setInt(3, dishOrder.getDish().getId());
+                    ps.setInt(4, dishOrder.getQuantity());
+                    ps.addBatch();
+                }
             }
             ps.executeBatch();
         }
@@ -499,31 +1922,124 @@ public class DataRetriever {
                 values (?, ?, ?, ?::movement_type, ?::unit, ?)
                 """;
 
+        int movementCount = orders.stream()
+                .flatMap(order -> order.getDishOrderList().stream())
+                .mapToInt(dishOrder -> recipeOf(dishOrder.getDish()).size())
+                .sum();
+        int[] stockMovementIds = idAllocator.nextIds(conn, "stock_movement", movementCount);
+        Instant now = Instant.now();
         try (PreparedStatement ps = conn.prepareStatement(insertStockMovementSql)) {
-            for (DishOrder dishOrder : orderToSave.getDishOrderList()) {
-                for (DishIngredient di : dishOrder.getDish().getDishIngredients()) {
-
-                    double quantityOut =
-                            di.getQuantity() * dishOrder.getQuantity();
-
-                    ps.setInt(1, getNextSerialValue(conn, "stock_movement", "id"));
-                    ps.setInt(2, di.getIngredient().getId());
-                    ps.setDouble(3, quantityOut);
-                    ps.setObject(4, MovementTypeEnum.OUT);
-                    ps.setObject(5, di.getUnit());
-                    ps.setTimestamp(6, Timestamp.from(Instant.now()));
-                    ps.addBatch();
+            int i = 0;
+            for (Order order : orders) {
+                for (DishOrder dishOrder : order.getDishOrderList()) {
+                    for (DishIngredient di : recipeOf(dishOrder.getDish())) {
+
+                        double quantityOut =
+                                di.getQuantity() * dishOrder.getQuantity();
+
+                        StockValue value = new StockValue();
+                        value.setQuantity(quantityOut);
+                        value.setUnit(di.getUnit());
+                        StockMovement stockMovement = new StockMovement();
+                        stockMovement.setId(stockMovementIds[i++]);
+                        stockMovement.setIdIngredient(di.getIngredient().getId());
+                        stockMovement.setType(MovementTypeEnum.OUT);
+                        stockMovement.setCreationDatetime(now);
+                        stockMovement.setValue(value);
+                        summary.add(stockMovement);
+
+                        ps.setInt(1, stockMovement.getId());
+                        ps.setInt(2, stockMovement.getIdIngredient());
+                        ps.setDouble(3, quantityOut);
+                        ps.setObject(4, MovementTypeEnum.OUT);
+                        ps.setObject(5, di.getUnit());
+                        ps.setTimestamp(6, Timestamp.from(now));
+                        ps.addBatch();
+                    }
                 }
             }
             ps.executeBatch();
         }
+        afterStockMovementsWritten(conn, summary);
+    }
 
-        conn.commit();
-        return findOrderByReference(orderToSave.getReference());
+    /**
+     * Sums what the dish orders need per ingredient and unit, so that two lines using the same ingredient
+     * are checked together.
+     */
+    private Map<Integer, Map<Unit, Double>> sumRequiredQuantities(List<DishOrder> dishOrders) {
+        Map<Integer, Map<Unit, Double>> requiredQuantities = new TreeMap<>();
+        for (DishOrder dishOrder : dishOrders) {
+            for (DishIngredient dishIngredient : recipeOf(dishOrder.getDish())) {
+                if (dishIngredient.getQuantity() == null) {
+                    throw new RuntimeException("Some ingredients have undefined quantity");
+                }
+                requiredQuantities.computeIfAbsent(dishIngredient.getIngredient().getId(), id -> new EnumMap<>(Unit.class))
+                        .merge(dishIngredient.getUnit(), dishIngredient.getQuantity() * dishOrder.getQuantity(), Double::sum);
+            }
+        }
+        return requiredQuantities;
+    }
 
-    } catch (Exception e) {
-        throw new RuntimeException(e);
+    private static List<DishIngredient> recipeOf(Dish dish) {
+        return dish.getDishIngredients() == null ? List.of() : dish.getDishIngredients();
     }
-}
 
+    private Map<Integer, String> getIngredientNames(List<DishOrder> dishOrders) {
+        Map<Integer, String> ingredientNames = new HashMap<>();
+        for (DishOrder dishOrder : dishOrders) {
+            for (DishIngredient dishIngredient : recipeOf(dishOrder.getDish())) {
+                ingredientNames.put(dishIngredient.getIngredient().getId(), dishIngredient.getIngredient().getName());
+            }
+        }
+        return ingredientNames;
+    }
+
+    /**
+     * Locks the ingredient rows until the end of the transaction, always in id order so that two orders
+     * sharing ingredients cannot deadlock. Orders on disjoint ingredients still run in parallel, and the
+     * balances read after the lock include every order committed before it was granted.
+     */
+    private void lockIngredients(Connection conn, Collection<Integer> ingredientIds) throws SQLException {
+        if (ingredientIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement("""
+                select id from ingredient where id = any(?) order by id for update""")) {
+            ps.setArray(1, conn.createArrayOf("int4", ingredientIds.stream().sorted().toArray()));
+            ps.executeQuery().close();
+        }
+    }
+
+    private List<StockShortage> findStockShortages(Map<Integer, Map<Unit, Double>> requiredQuantities,
+                                                   Map<Integer, StockValue> stockValues,
+                                                   Map<Integer, String> ingredientNames) {
+        List<StockShortage> shortages = new ArrayList<>();
+        requiredQuantities.forEach((idIngredient, quantityByUnit) -> quantityByUnit.forEach((unit, required) -> {
+            StockValue stockValue = stockValues.get(idIngredient);
+            double available = stockValue != null && stockValue.getUnit() == unit ? stockValue.getQuantity() : 0;
+            if (available < required) {
+                shortages.add(new StockShortage(idIngredient, ingredientNames.get(idIngredient), unit, required, available));
+            }
+        }));
+        return shortages;
+    }
+
+    private void consumeStock(Map<Integer, StockValue> stockValues, Map<Integer, Map<Unit, Double>> requiredQuantities) {
+        requiredQuantities.forEach((idIngredient, quantityByUnit) -> quantityByUnit.forEach((unit, required) -> {
+            if (required == 0) {
+                return;
+            }
+            StockValue stockValue = stockValues.computeIfAbsent(idIngredient, id -> {
+                StockValue empty = new StockValue();
+                empty.setQuantity(0.0);
+                empty.setUnit(unit);
+                return empty;
+            });
+            stockValue.setQuantity(stockValue.getQuantity() - required);
+        }));
+    }
+
+    private record StoredDishIngredient(int id, Double quantity, Unit unit) {
+    }
 }
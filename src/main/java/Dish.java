@@ -43,6 +43,9 @@ public class Dish {
             if (quantity == null) {
                 throw new RuntimeException("Some ingredients have undefined quantity");
             }
+            if (dishIngredient.getIngredient().getPrice() == null) {
+                throw new RuntimeException("Some ingredients have undefined price");
+            }
             totalPrice = totalPrice + dishIngredient.getIngredient().getPrice() * quantity;
         }
         return totalPrice;
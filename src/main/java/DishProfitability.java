@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class DishProfitability {
+    static final String UNDEFINED_SELLING_PRICE = "Selling price is undefined";
+    static final String UNDEFINED_QUANTITY = "Some ingredients have undefined quantity";
+    static final String UNDEFINED_INGREDIENT_PRICE = "Some ingredients have undefined price";
+
+    private final Integer idDish;
+    private final String name;
+    private final DishTypeEnum dishType;
+    private final Double sellingPrice;
+    private final Double cost;
+    private final List<String> issues;
+
+    public DishProfitability(Integer idDish, String name, DishTypeEnum dishType, Double sellingPrice, Double cost,
+                             List<String> issues) {
+        this.idDish = idDish;
+        this.name = name;
+        this.dishType = dishType;
+        this.sellingPrice = sellingPrice;
+        this.cost = cost;
+        this.issues = List.copyOf(issues);
+    }
+
+    /**
+     * Same figures as {@link Dish#getDishCost()} and {@link Dish#getGrossMargin()}, with missing values
+     * reported as issues instead of exceptions.
+     */
+    public static DishProfitability of(Dish dish) {
+        List<String> issues = new ArrayList<>();
+        if (dish.getPrice() == null) {
+            issues.add(UNDEFINED_SELLING_PRICE);
+        }
+        double cost = 0;
+        boolean undefinedQuantity = false;
+        boolean undefinedIngredientPrice = false;
+        for (DishIngredient dishIngredient : dish.getDishIngredients()) {
+            Double price = dishIngredient.getIngredient().getPrice();
+            if (dishIngredient.getQuantity() == null) {
+                undefinedQuantity = true;
+            } else if (price == null) {
+                undefinedIngredientPrice = true;
+            } else {
+                cost += price * dishIngredient.getQuantity();
+            }
+        }
+        if (undefinedQuantity) {
+            issues.add(UNDEFINED_QUANTITY);
+        }
+        if (undefinedIngredientPrice) {
+            issues.add(UNDEFINED_INGREDIENT_PRICE);
+        }
+        return new DishProfitability(dish.getId(), dish.getName(), dish.getDishType(), dish.getPrice(),
+                undefinedQuantity || undefinedIngredientPrice ? null : cost, issues);
+    }
+
+    public Integer getIdDish() {
+        return idDish;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DishTypeEnum getDishType() {
+        return dishType;
+    }
+
+    public Double getSellingPrice() {
+        return sellingPrice;
+    }
+
+    /**
+     * Null when a recipe line has no quantity or its ingredient no price.
+     */
+    public Double getCost() {
+        return cost;
+    }
+
+    /**
+     * Null when either the selling price or the cost is unknown.
+     */
+    public Double getGrossMargin() {
+        return sellingPrice == null || cost == null ? null : sellingPrice - cost;
+    }
+
+    public List<String> getIssues() {
+        return issues;
+    }
+
+    public boolean isComplete() {
+        return issues.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DishProfitability{" +
+                "idDish=" + idDish +
+                ", name='" + name + '\'' +
+                ", dishType=" + dishType +
+                ", sellingPrice=" + sellingPrice +
+                ", cost=" + cost +
+                ", grossMargin=" + getGrossMargin() +
+                ", issues=" + issues +
+                '}';
+    }
+}
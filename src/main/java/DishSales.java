@@ -0,0 +1,52 @@
+import java.math.BigDecimal;
+
+public class DishSales {
+    private final Integer idDish;
+    private final String name;
+    private final DishTypeEnum dishType;
+    private final Long quantity;
+    private final BigDecimal revenue;
+
+    public DishSales(Integer idDish, String name, DishTypeEnum dishType, Long quantity, BigDecimal revenue) {
+        this.idDish = idDish;
+        this.name = name;
+        this.dishType = dishType;
+        this.quantity = quantity;
+        this.revenue = revenue;
+    }
+
+    public Integer getIdDish() {
+        return idDish;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DishTypeEnum getDishType() {
+        return dishType;
+    }
+
+    public Long getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Quantity sold times the current selling price, null when the dish has no price. Kept exact, as it is
+     * also the cursor of the next page.
+     */
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+
+    @Override
+    public String toString() {
+        return "DishSales{" +
+                "idDish=" + idDish +
+                ", name='" + name + '\'' +
+                ", dishType=" + dishType +
+                ", quantity=" + quantity +
+                ", revenue=" + revenue +
+                '}';
+    }
+}
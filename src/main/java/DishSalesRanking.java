@@ -0,0 +1,3 @@
+public enum DishSalesRanking {
+    QUANTITY, REVENUE
+}
@@ -0,0 +1,148 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out serial ids from blocks reserved in a single {@code nextval} round trip per block.
+ * Sequence names are resolved (and synchronised with the table's current max id) once per table.
+ * Database round trips never run inside a monitor, so waiting virtual threads do not pin their carrier.
+ */
+public class IdAllocator {
+    private static final IdBlock EMPTY = new IdBlock(new int[0]);
+
+    private final int blockSize;
+    private final Map<String, String> sequenceNames = new ConcurrentHashMap<>();
+    private final Map<String, AtomicReference<IdBlock>> blocks = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> refillLocks = new ConcurrentHashMap<>();
+    private final ReentrantLock sequenceLock = new ReentrantLock();
+
+    public IdAllocator() {
+        this(50);
+    }
+
+    public IdAllocator(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    public int nextId(Connection conn, String tableName) throws SQLException {
+        AtomicReference<IdBlock> current = blocks.computeIfAbsent(tableName, table -> new AtomicReference<>(EMPTY));
+        while (true) {
+            IdBlock block = current.get();
+            int index = block.cursor.getAndIncrement();
+            if (index < block.ids.length) {
+                return block.ids[index];
+            }
+            ReentrantLock refillLock = refillLocks.computeIfAbsent(tableName, table -> new ReentrantLock());
+            refillLock.lock();
+            try {
+                if (current.get() == block) {
+                    current.set(new IdBlock(reserve(conn, tableName, blockSize)));
+                }
+            } finally {
+                refillLock.unlock();
+            }
+        }
+    }
+
+    public int[] nextIds(Connection conn, String tableName, int count) throws SQLException {
+        if (count <= 0) {
+            return new int[0];
+        }
+        IdBlock block = blocks.computeIfAbsent(tableName, table -> new AtomicReference<>(EMPTY)).get();
+        int start = block.cursor.getAndAdd(count);
+        if (start + count <= block.ids.length) {
+            int[] ids = new int[count];
+            System.arraycopy(block.ids, start, ids, 0, count);
+            return ids;
+        }
+        return reserve(conn, tableName, count);
+    }
+
+    private int[] reserve(Connection conn, String tableName, int count) throws SQLException {
+        String sequenceName = getSequenceName(conn, tableName);
+        int[] ids = new int[count];
+        // The shared lock, taken before any nextval, keeps a sequence sync of another allocator out meanwhile
+        try (PreparedStatement ps = conn.prepareStatement("""
+                WITH sync_lock AS MATERIALIZED (SELECT pg_advisory_xact_lock_shared(?::regclass::oid::int8))
+                SELECT nextval(?) FROM sync_lock, generate_series(1, ?)""")) {
+            ps.setString(1, sequenceName);
+            ps.setString(2, sequenceName);
+            ps.setInt(3, count);
+            try (ResultSet rs = ps.executeQuery()) {
+                int i = 0;
+                while (rs.next()) {
+                    ids[i++] = rs.getInt(1);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private String getSequenceName(Connection conn, String tableName) throws SQLException {
+        String cached = sequenceNames.get(tableName);
+        if (cached != null) {
+            return cached;
+        }
+        sequenceLock.lock();
+        try {
+            cached = sequenceNames.get(tableName);
+            if (cached != null) {
+                return cached;
+            }
+            String quotedTable = "\"" + tableName + "\"";
+            String sequenceName;
+            try (PreparedStatement ps = conn.prepareStatement("SELECT pg_get_serial_sequence(?, 'id')")) {
+                ps.setString(1, quotedTable);
+                try (ResultSet rs = ps.executeQuery()) {
+                    sequenceName = rs.next() ? rs.getString(1) : null;
+                }
+            }
+            if (sequenceName == null) {
+                throw new IllegalArgumentException("Any sequence found for " + tableName + ".id");
+            }
+            syncSequence(conn, sequenceName, quotedTable);
+            sequenceNames.put(tableName, sequenceName);
+            return sequenceName;
+        } finally {
+            sequenceLock.unlock();
+        }
+    }
+
+    /**
+     * Rows inserted with explicit ids (e.g. data.sql) do not advance the sequence, so it is moved up to the
+     * table's max id, and only ever forward. The sequence is read after the exclusive lock is granted, which
+     * waits for the blocks other allocators are reserving: none of them can move it before the setval.
+     */
+    private static void syncSequence(Connection conn, String sequenceName, String quotedTable) throws SQLException {
+        String syncSql = String.format("""
+                WITH sync_lock AS MATERIALIZED (SELECT pg_advisory_xact_lock(?::regclass::oid::int8), true AS locked)
+                SELECT setval('%1$s', t.max_id)
+                FROM sync_lock, (SELECT MAX(id) AS max_id FROM %2$s) t
+                WHERE t.max_id > (SELECT CASE WHEN s.is_called THEN s.last_value ELSE s.last_value - 1 END
+                                  FROM %1$s s
+                                  WHERE sync_lock.locked)""",
+                sequenceName, quotedTable);
+        try (PreparedStatement ps = conn.prepareStatement(syncSql)) {
+            ps.setString(1, sequenceName);
+            ps.executeQuery().close();
+        }
+    }
+
+    private static final class IdBlock {
+        private final int[] ids;
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        private IdBlock(int[] ids) {
+            this.ids = ids;
+        }
+    }
+}
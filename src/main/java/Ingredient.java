@@ -1,9 +1,7 @@
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.DoubleStream;
 
 import static java.time.Instant.now;
 
@@ -13,6 +11,7 @@ public class Ingredient {
     private CategoryEnum category;
     private Double price;
     private List<StockMovement> stockMovementList;
+    private StockLedger stockLedger;
 
     public Ingredient() {
     }
@@ -70,35 +69,55 @@ public class Ingredient {
 
     public void setStockMovementList(List<StockMovement> stockMovementList) {
         this.stockMovementList = stockMovementList;
+        this.stockLedger = null;
+    }
+
+    public void addStockMovement(StockMovement stockMovement) {
+        if (stockMovementList == null) {
+            stockMovementList = new ArrayList<>();
+        }
+        StockLedger ledger = getStockLedger();
+        stockMovementList.add(stockMovement);
+        ledger.append(stockMovement);
     }
 
     public StockValue getStockValueAt(Instant t) {
-        if (stockMovementList == null) return null;
-        Map<Unit, List<StockMovement>> unitSet = stockMovementList.stream()
-                .collect(Collectors.groupingBy(stockMovement -> stockMovement.getValue().getUnit()));
-        if (unitSet.keySet().size() > 1) {
+        StockLedger ledger = getStockLedger();
+        if (ledger == null || ledger.size() == 0) return null;
+        if (ledger.hasMultipleUnits()) {
             throw new RuntimeException("Multiple unit found and not handle for conversion");
         }
 
-        List<StockMovement> stockMovements = stockMovementList.stream()
-                .filter(stockMovement -> !stockMovement.getCreationDatetime().isAfter(t))
-                .toList();
-        double movementIn = stockMovements.stream()
-                .filter(stockMovement -> stockMovement.getType().equals(MovementTypeEnum.IN))
-                .flatMapToDouble(stockMovement -> DoubleStream.of(stockMovement.getValue().getQuantity()))
-                .sum();
-        double movementOut = stockMovements.stream()
-                .filter(stockMovement -> stockMovement.getType().equals(MovementTypeEnum.OUT))
-                .flatMapToDouble(stockMovement -> DoubleStream.of(stockMovement.getValue().getQuantity()))
-                .sum();
+        StockValue stockValue = new StockValue();
+        stockValue.setQuantity(ledger.quantityAt(t));
+        stockValue.setUnit(ledger.getUnit());
+
+        return stockValue;
+    }
+
+    public StockValue getStockMovementBetween(Instant from, Instant to) {
+        StockLedger ledger = getStockLedger();
+        if (ledger == null || ledger.size() == 0) return null;
+        if (ledger.hasMultipleUnits()) {
+            throw new RuntimeException("Multiple unit found and not handle for conversion");
+        }
 
         StockValue stockValue = new StockValue();
-        stockValue.setQuantity(movementIn - movementOut);
-        stockValue.setUnit(unitSet.keySet().stream().findFirst().get());
+        stockValue.setQuantity(ledger.quantityBetween(from, to));
+        stockValue.setUnit(ledger.getUnit());
 
         return stockValue;
     }
 
+    private StockLedger getStockLedger() {
+        if (stockMovementList == null) return null;
+        // The list is exposed by getStockMovementList, so rebuild if it was modified from outside
+        if (stockLedger == null || stockLedger.size() != stockMovementList.size()) {
+            stockLedger = new StockLedger(stockMovementList);
+        }
+        return stockLedger;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(id, name, category, price);
@@ -0,0 +1,62 @@
+public class IngredientValuation {
+    private final Integer idIngredient;
+    private final String name;
+    private final CategoryEnum category;
+    private final Unit unit;
+    private final Double quantity;
+    private final Double price;
+
+    public IngredientValuation(Integer idIngredient, String name, CategoryEnum category, Unit unit, Double quantity,
+                               Double price) {
+        this.idIngredient = idIngredient;
+        this.name = name;
+        this.category = category;
+        this.unit = unit;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    public Integer getIdIngredient() {
+        return idIngredient;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CategoryEnum getCategory() {
+        return category;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public Double getQuantity() {
+        return quantity;
+    }
+
+    public Double getPrice() {
+        return price;
+    }
+
+    /**
+     * Null when the ingredient has no price.
+     */
+    public Double getValue() {
+        return price == null ? null : quantity * price;
+    }
+
+    @Override
+    public String toString() {
+        return "IngredientValuation{" +
+                "idIngredient=" + idIngredient +
+                ", name='" + name + '\'' +
+                ", category=" + category +
+                ", unit=" + unit +
+                ", quantity=" + quantity +
+                ", price=" + price +
+                ", value=" + getValue() +
+                '}';
+    }
+}
@@ -0,0 +1,21 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class InsufficientStockException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<StockShortage> shortages;
+
+    public InsufficientStockException(List<StockShortage> shortages) {
+        super("Stock insuffisant pour les ingrédients : " + shortages.stream()
+                .map(StockShortage::getIngredientName)
+                .collect(Collectors.joining(", ")));
+        this.shortages = new ArrayList<>(shortages);
+    }
+
+    public List<StockShortage> getShortages() {
+        return Collections.unmodifiableList(shortages);
+    }
+}
@@ -0,0 +1,53 @@
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Value of the stock on hand at one instant: one line per ingredient and unit that had moved by then,
+ * and the totals per category. Lines without a price are listed but left out of the totals.
+ */
+public class InventoryValuation {
+    private final Instant at;
+    private final List<IngredientValuation> ingredients;
+    private final Map<CategoryEnum, Double> totalByCategory;
+
+    public InventoryValuation(Instant at, List<IngredientValuation> ingredients) {
+        this.at = at;
+        this.ingredients = List.copyOf(ingredients);
+        Map<CategoryEnum, Double> totals = new EnumMap<>(CategoryEnum.class);
+        for (IngredientValuation ingredient : ingredients) {
+            if (ingredient.getValue() != null && ingredient.getCategory() != null) {
+                totals.merge(ingredient.getCategory(), ingredient.getValue(), Double::sum);
+            }
+        }
+        this.totalByCategory = Collections.unmodifiableMap(totals);
+    }
+
+    public Instant getAt() {
+        return at;
+    }
+
+    public List<IngredientValuation> getIngredients() {
+        return ingredients;
+    }
+
+    public Map<CategoryEnum, Double> getTotalByCategory() {
+        return totalByCategory;
+    }
+
+    public double getTotal() {
+        return totalByCategory.values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+
+    @Override
+    public String toString() {
+        return "InventoryValuation{" +
+                "at=" + at +
+                ", total=" + getTotal() +
+                ", totalByCategory=" + totalByCategory +
+                ", ingredients=" + ingredients +
+                '}';
+    }
+}
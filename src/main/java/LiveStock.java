@@ -0,0 +1,390 @@
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory stock balance of every ingredient and unit, kept as fixed-point hundredths in an open
+ * addressing table keyed by the primitive ingredient id. {@link DataRetriever} applies the movements it
+ * writes once their transaction has committed; movements written by other processes are only picked up
+ * by {@link #reconcile()}, which compares the counters with the database and repairs the ones that drifted.
+ */
+public class LiveStock implements AutoCloseable {
+    static final int SCALE = 100;
+
+    private static final Logger LOGGER = Logger.getLogger(LiveStock.class.getName());
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final Unit[] UNITS = Unit.values();
+
+    private final DBConnection dbConnection;
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table = new Table(64);
+    private ScheduledExecutorService reconciler;
+    private final List<Consumer<Set<Integer>>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Integer> pendingApplies = new HashMap<>();
+
+    private final LongAdder appliedMovements = new LongAdder();
+    private final LongAdder reconciliations = new LongAdder();
+    private final LongAdder repairedCounters = new LongAdder();
+    private final LongAdder failedReconciliations = new LongAdder();
+
+    public LiveStock(DBConnection dbConnection) {
+        this.dbConnection = dbConnection;
+    }
+
+    /**
+     * Loads the balances from {@code stock_movement}. Meant to run at startup, before orders are placed.
+     */
+    public void hydrate() {
+        reconcile();
+    }
+
+    public double getQuantity(int idIngredient, Unit unit) {
+        return getFixedPoint(idIngredient, unit) / (double) SCALE;
+    }
+
+    public boolean hasEnough(int idIngredient, Unit unit, double required) {
+        return getFixedPoint(idIngredient, unit) >= toFixedPoint(required);
+    }
+
+    /**
+     * Registers a callback receiving the ids of the ingredients whose counters just changed. It runs on the
+     * thread that applied the change, after the counters were updated.
+     */
+    public void addListener(Consumer<Set<Integer>> listener) {
+        listeners.add(listener);
+    }
+
+    public long getAppliedMovements() {
+        return appliedMovements.sum();
+    }
+
+    public long getReconciliations() {
+        return reconciliations.sum();
+    }
+
+    public long getRepairedCounters() {
+        return repairedCounters.sum();
+    }
+
+    public long getFailedReconciliations() {
+        return failedReconciliations.sum();
+    }
+
+    /**
+     * Announces movements about to be committed. Until they are applied or aborted, a reconciliation
+     * leaves their ingredients alone: it may already read them while the counters do not hold them yet.
+     */
+    void beginApply(StockMovementSummary summary) {
+        long stamp = lock.writeLock();
+        try {
+            for (Integer idIngredient : summary.getDeltaByIngredient().keySet()) {
+                pendingApplies.merge(idIngredient, 1, Integer::sum);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Withdraws movements announced by {@link #beginApply} whose transaction did not commit.
+     */
+    void abortApply(StockMovementSummary summary) {
+        long stamp = lock.writeLock();
+        try {
+            endPendingApplies(summary);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds the committed movements of {@code summary} to the counters.
+     */
+    void apply(StockMovementSummary summary) {
+        if (summary.isEmpty()) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            for (Map.Entry<Integer, long[]> entry : summary.getDeltaByIngredient().entrySet()) {
+                int slot = slotForUpdate(entry.getKey());
+                Table t = table;
+                long[] deltas = entry.getValue();
+                for (int unit = 0; unit < UNITS.length; unit++) {
+                    t.quantities[slot * UNITS.length + unit] += deltas[unit];
+                }
+                t.versions[slot]++;
+            }
+            endPendingApplies(summary);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        appliedMovements.add(summary.getCount());
+        notifyListeners(summary.getDeltaByIngredient().keySet());
+    }
+
+    /**
+     * Recomputes every balance in the database and overwrites the counters that differ. A counter that
+     * was updated while the query ran is left alone, since the query may not have seen that movement, and
+     * so is one with committed movements not applied yet, since the query may already have seen them.
+     *
+     * @return the number of counters repaired
+     */
+    public int reconcile() {
+        long[] versionsBefore;
+        int[] keysBefore;
+        long stamp = lock.readLock();
+        try {
+            keysBefore = table.keys.clone();
+            versionsBefore = table.versions.clone();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        Map<Integer, long[]> expected = new HashMap<>();
+        try (Connection conn = dbConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement("""
+                     select id_ingredient, unit,
+                            sum(case when type = 'IN' then quantity else -quantity end) as quantity
+                     from stock_movement
+                     where id_ingredient is not null and unit is not null
+                     group by id_ingredient, unit""")) {
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    long[] quantities = expected.computeIfAbsent(rs.getInt("id_ingredient"), id -> new long[UNITS.length]);
+                    quantities[Unit.valueOf(rs.getString("unit")).ordinal()] = rs.getBigDecimal("quantity")
+                            .movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        int repaired = 0;
+        Set<Integer> repairedIngredients = new HashSet<>();
+        stamp = lock.writeLock();
+        try {
+            for (Map.Entry<Integer, long[]> entry : expected.entrySet()) {
+                if (isSettled(entry.getKey(), keysBefore, versionsBefore)) {
+                    int repairedUnits = overwrite(entry.getKey(), entry.getValue());
+                    if (repairedUnits > 0) {
+                        repaired += repairedUnits;
+                        repairedIngredients.add(entry.getKey());
+                    }
+                }
+            }
+            long[] zero = new long[UNITS.length];
+            Table t = table;
+            for (int slot = 0; slot < t.keys.length; slot++) {
+                int idIngredient = t.keys[slot];
+                if (idIngredient != EMPTY && !expected.containsKey(idIngredient)
+                        && isSettled(idIngredient, keysBefore, versionsBefore)) {
+                    int repairedUnits = overwrite(idIngredient, zero);
+                    if (repairedUnits > 0) {
+                        repaired += repairedUnits;
+                        repairedIngredients.add(idIngredient);
+                    }
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        reconciliations.increment();
+        repairedCounters.add(repaired);
+        if (!repairedIngredients.isEmpty()) {
+            notifyListeners(repairedIngredients);
+        }
+        return repaired;
+    }
+
+    /**
+     * Runs {@link #reconcile()} every {@code period} on a background thread until {@link #close()}.
+     */
+    public synchronized void startReconciliation(Duration period) {
+        if (reconciler != null) {
+            throw new IllegalStateException("Reconciliation already started");
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-stock-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                int repaired = reconcile();
+                if (repaired > 0) {
+                    LOGGER.info("Live stock repaired " + repaired + " drifted counters");
+                }
+            } catch (RuntimeException e) {
+                failedReconciliations.increment();
+                LOGGER.log(Level.WARNING, "Live stock reconciliation failed", e);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+    }
+
+    static long toFixedPoint(double quantity) {
+        return Math.round(quantity * SCALE);
+    }
+
+    /**
+     * Balance in hundredths of the unit.
+     */
+    long getFixedPoint(int idIngredient, Unit unit) {
+        long stamp = lock.tryOptimisticRead();
+        long quantity = read(table, idIngredient, unit);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                quantity = read(table, idIngredient, unit);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return quantity;
+    }
+
+    private void notifyListeners(Set<Integer> ingredientIds) {
+        for (Consumer<Set<Integer>> listener : listeners) {
+            listener.accept(ingredientIds);
+        }
+    }
+
+    private static long read(Table t, int idIngredient, Unit unit) {
+        int slot = t.find(idIngredient);
+        return slot < 0 ? 0 : t.quantities[slot * UNITS.length + unit.ordinal()];
+    }
+
+    private void endPendingApplies(StockMovementSummary summary) {
+        for (Integer idIngredient : summary.getDeltaByIngredient().keySet()) {
+            pendingApplies.computeIfPresent(idIngredient, (id, pending) -> pending == 1 ? null : pending - 1);
+        }
+    }
+
+    private boolean isSettled(int idIngredient, int[] keysBefore, long[] versionsBefore) {
+        return !pendingApplies.containsKey(idIngredient) && unchangedSince(idIngredient, keysBefore, versionsBefore);
+    }
+
+    private boolean unchangedSince(int idIngredient, int[] keysBefore, long[] versionsBefore) {
+        long versionBefore = 0;
+        int mask = keysBefore.length - 1;
+        for (int slot = mix(idIngredient) & mask; keysBefore[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keysBefore[slot] == idIngredient) {
+                versionBefore = versionsBefore[slot];
+                break;
+            }
+        }
+        int slot = table.find(idIngredient);
+        return (slot < 0 ? 0 : table.versions[slot]) == versionBefore;
+    }
+
+    private int overwrite(int idIngredient, long[] quantities) {
+        int slot = table.find(idIngredient);
+        if (slot < 0 && Arrays.stream(quantities).allMatch(quantity -> quantity == 0)) {
+            return 0;
+        }
+        slot = slotForUpdate(idIngredient);
+        Table t = table;
+        int repaired = 0;
+        for (int unit = 0; unit < UNITS.length; unit++) {
+            if (t.quantities[slot * UNITS.length + unit] != quantities[unit]) {
+                t.quantities[slot * UNITS.length + unit] = quantities[unit];
+                repaired++;
+            }
+        }
+        return repaired;
+    }
+
+    private int slotForUpdate(int idIngredient) {
+        int slot = table.find(idIngredient);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (table.size * 2 >= table.keys.length) {
+            table = table.resized();
+        }
+        return table.slotForUpdate(idIngredient);
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Keys and counters are replaced together on resize, so an optimistic reader always sees a consistent pair.
+     */
+    private static final class Table {
+        final int[] keys;
+        final long[] versions;
+        final long[] quantities;
+        int size;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            versions = new long[capacity];
+            quantities = new long[capacity * UNITS.length];
+        }
+
+        int find(int key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        int slotForUpdate(int key) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            size++;
+            return slot;
+        }
+
+        Table resized() {
+            Table bigger = new Table(keys.length * 2);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != EMPTY) {
+                    int newSlot = bigger.slotForUpdate(keys[slot]);
+                    bigger.versions[newSlot] = versions[slot];
+                    System.arraycopy(quantities, slot * UNITS.length, bigger.quantities, newSlot * UNITS.length, UNITS.length);
+                }
+            }
+            return bigger;
+        }
+    }
+}
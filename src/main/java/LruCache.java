@@ -0,0 +1,150 @@
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+
+/**
+ * Bounded least-recently-used cache whose entries also expire {@code timeToLive} after being loaded.
+ * Every invalidation bumps a generation number: a value loaded before an invalidation is dropped by
+ * {@link #putIfCurrent(Object, Object, long)} instead of bringing back the stale row.
+ */
+public class LruCache<K, V> {
+    private final int maxSize;
+    private final long timeToLiveNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, CachedValue<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LruCache(int maxSize, Duration timeToLive) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = timeToLive.toNanos();
+    }
+
+    public V get(K key) {
+        lock.lock();
+        try {
+            CachedValue<V> cached = entries.get(key);
+            if (cached != null && System.nanoTime() - cached.loadedAtNanos() >= timeToLiveNanos) {
+                entries.remove(key);
+                evictions.increment();
+                cached = null;
+            }
+            if (cached == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return cached.value();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Generation to read before loading a value from the database and to pass back to {@link #putIfCurrent}.
+     */
+    public long generation() {
+        lock.lock();
+        try {
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void putIfCurrent(K key, V value, long loadedGeneration) {
+        lock.lock();
+        try {
+            if (loadedGeneration != generation) {
+                return;
+            }
+            entries.put(key, new CachedValue<>(value, System.nanoTime()));
+            Iterator<CachedValue<V>> eldestFirst = entries.values().iterator();
+            while (entries.size() > maxSize) {
+                eldestFirst.next();
+                eldestFirst.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            generation++;
+            entries.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateIf(BiPredicate<K, V> predicate) {
+        lock.lock();
+        try {
+            generation++;
+            entries.entrySet().removeIf(entry -> predicate.test(entry.getKey(), entry.getValue().value()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            generation++;
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long lookups = hits.sum() + misses.sum();
+        return lookups == 0 ? 0 : (double) hits.sum() / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "LruCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+    private record CachedValue<V>(V value, long loadedAtNanos) {
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maximum number of portions of every dish the current stock allows. Recipes are laid out as a dense
+ * dish-by-(ingredient, unit) matrix of required hundredths, and the portions are kept up to date from
+ * {@link LiveStock}: when an ingredient moves, only the rows of the dishes using it are recomputed.
+ * A dish without any recipe line is reported as {@link Integer#MAX_VALUE} portions, and one with a line the
+ * matrix cannot hold (no quantity or unit, or less than a hundredth) as 0, since it cannot be ordered.
+ */
+public final class MenuAvailability {
+    private static final Unit[] UNITS = Unit.values();
+
+    private final DataRetriever dataRetriever;
+    private final LiveStock liveStock;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int[] dishIds = new int[0];
+    private int[] ingredientIds = new int[0];
+    private Map<Integer, Integer> ingredientIndex = new HashMap<>();
+    private long[] requirements = new long[0];
+    private int[][] dishesByIngredient = new int[0][];
+    private long[] stock = new long[0];
+    private int[] maxPortions = new int[0];
+    private boolean[] unavailable = new boolean[0];
+
+    public MenuAvailability(DataRetriever dataRetriever, LiveStock liveStock) {
+        this.dataRetriever = dataRetriever;
+        this.liveStock = liveStock;
+        liveStock.addListener(this::onStockChanged);
+        reload();
+    }
+
+    /**
+     * Rebuilds the requirement matrix from the stored recipes, to be called after the menu changed.
+     */
+    public void reload() {
+        List<Dish> dishes = dataRetriever.findAllDishes();
+        Map<Integer, Integer> newIngredientIndex = new HashMap<>();
+        for (Dish dish : dishes) {
+            for (DishIngredient dishIngredient : recipeOf(dish)) {
+                newIngredientIndex.putIfAbsent(dishIngredient.getIngredient().getId(), newIngredientIndex.size());
+            }
+        }
+        int columns = newIngredientIndex.size() * UNITS.length;
+        int[] newIngredientIds = new int[newIngredientIndex.size()];
+        newIngredientIndex.forEach((idIngredient, index) -> newIngredientIds[index] = idIngredient);
+
+        int[] newDishIds = new int[dishes.size()];
+        long[] newRequirements = new long[dishes.size() * columns];
+        int[] usageCount = new int[newIngredientIds.length];
+        boolean[] newUnavailable = new boolean[dishes.size()];
+        for (int row = 0; row < dishes.size(); row++) {
+            Dish dish = dishes.get(row);
+            newDishIds[row] = dish.getId();
+            for (DishIngredient dishIngredient : recipeOf(dish)) {
+                long required = dishIngredient.getQuantity() == null ? 0 : LiveStock.toFixedPoint(dishIngredient.getQuantity());
+                if (dishIngredient.getUnit() == null || required <= 0) {
+                    newUnavailable[row] = true;
+                    continue;
+                }
+                int ingredient = newIngredientIndex.get(dishIngredient.getIngredient().getId());
+                int cell = row * columns + ingredient * UNITS.length + dishIngredient.getUnit().ordinal();
+                if (newRequirements[cell] == 0) {
+                    usageCount[ingredient]++;
+                }
+                newRequirements[cell] += required;
+            }
+        }
+        int[][] newDishesByIngredient = new int[newIngredientIds.length][];
+        for (int ingredient = 0; ingredient < newIngredientIds.length; ingredient++) {
+            newDishesByIngredient[ingredient] = new int[usageCount[ingredient]];
+        }
+        int[] filled = new int[newIngredientIds.length];
+        for (int row = 0; row < newDishIds.length; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (newRequirements[row * columns + column] > 0) {
+                    int ingredient = column / UNITS.length;
+                    newDishesByIngredient[ingredient][filled[ingredient]++] = row;
+                }
+            }
+        }
+
+        lock.lock();
+        try {
+            dishIds = newDishIds;
+            ingredientIds = newIngredientIds;
+            ingredientIndex = newIngredientIndex;
+            requirements = newRequirements;
+            dishesByIngredient = newDishesByIngredient;
+            unavailable = newUnavailable;
+            stock = new long[newIngredientIds.length * UNITS.length];
+            for (int ingredient = 0; ingredient < newIngredientIds.length; ingredient++) {
+                readStock(ingredient);
+            }
+            maxPortions = new int[newDishIds.length];
+            for (int row = 0; row < newDishIds.length; row++) {
+                maxPortions[row] = computeRow(row);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<Integer, Integer> getMaxPortions() {
+        lock.lock();
+        try {
+            Map<Integer, Integer> portionsByDish = new LinkedHashMap<>();
+            for (int row = 0; row < dishIds.length; row++) {
+                portionsByDish.put(dishIds[row], maxPortions[row]);
+            }
+            return portionsByDish;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxPortions(int idDish) {
+        lock.lock();
+        try {
+            for (int row = 0; row < dishIds.length; row++) {
+                if (dishIds[row] == idDish) {
+                    return maxPortions[row];
+                }
+            }
+            throw new RuntimeException("Dish not found " + idDish);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isAvailable(int idDish) {
+        return getMaxPortions(idDish) > 0;
+    }
+
+    private void onStockChanged(Set<Integer> changedIngredients) {
+        lock.lock();
+        try {
+            boolean[] dirty = new boolean[dishIds.length];
+            boolean anyDirty = false;
+            for (Integer idIngredient : changedIngredients) {
+                Integer ingredient = ingredientIndex.get(idIngredient);
+                if (ingredient != null) {
+                    readStock(ingredient);
+                    for (int row : dishesByIngredient[ingredient]) {
+                        dirty[row] = true;
+                        anyDirty = true;
+                    }
+                }
+            }
+            if (!anyDirty) {
+                return;
+            }
+            for (int row = 0; row < dishIds.length; row++) {
+                if (dirty[row]) {
+                    maxPortions[row] = computeRow(row);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static List<DishIngredient> recipeOf(Dish dish) {
+        return dish.getDishIngredients() == null ? List.of() : dish.getDishIngredients();
+    }
+
+    private void readStock(int ingredient) {
+        for (Unit unit : UNITS) {
+            stock[ingredient * UNITS.length + unit.ordinal()] = liveStock.getFixedPoint(ingredientIds[ingredient], unit);
+        }
+    }
+
+    private int computeRow(int row) {
+        if (unavailable[row]) {
+            return 0;
+        }
+        int columns = stock.length;
+        long portions = Long.MAX_VALUE;
+        for (int column = 0; column < columns; column++) {
+            long required = requirements[row * columns + column];
+            if (required > 0) {
+                portions = Math.min(portions, Math.max(0, stock[column]) / required);
+            }
+        }
+        return (int) Math.min(portions, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,3 @@
+public enum OrderBatchMode {
+    ALL_OR_NOTHING, BEST_EFFORT
+}
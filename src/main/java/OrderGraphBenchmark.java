@@ -0,0 +1,80 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * Loads orders of growing size through {@link DataRetriever#findOrderByReference(String)} and prints
+ * how many statements each load prepared. The count must stay the same whatever the number of lines.
+ */
+public class OrderGraphBenchmark {
+    private static final int[] ORDER_SIZES = {1, 5, 20, 100, 500};
+    private static final int ITERATIONS = 20;
+
+    public static void main(String[] args) throws SQLException {
+        try (DBConnection dbConnection = new DBConnection()) {
+            DataRetriever dataRetriever = new DataRetriever(dbConnection);
+            System.out.printf("%8s %12s %14s%n", "lines", "statements", "avg time (ms)");
+            for (int size : ORDER_SIZES) {
+                String reference = "BENCH-" + size + "-" + System.nanoTime();
+                insertOrder(dbConnection, reference, size);
+                try {
+                    dataRetriever.findOrderByReference(reference);
+
+                    long statementsBefore = dbConnection.getPreparedStatementCount();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        dataRetriever.findOrderByReference(reference);
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    long statements = (dbConnection.getPreparedStatementCount() - statementsBefore) / ITERATIONS;
+                    System.out.printf("%8d %12d %14.2f%n", size, statements, elapsed / 1_000_000.0 / ITERATIONS);
+                } finally {
+                    deleteOrder(dbConnection, reference);
+                }
+            }
+        }
+    }
+
+    private static void insertOrder(DBConnection dbConnection, String reference, int lines) throws SQLException {
+        try (Connection conn = dbConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    insert into "order"(reference, creation_datetime) values (?, ?)""")) {
+                ps.setString(1, reference);
+                ps.setTimestamp(2, Timestamp.from(Instant.now()));
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    insert into dish_order(id_order, id_dish, quantity)
+                    select o.id, d.id, 1
+                    from "order" o,
+                         generate_series(1, ?) line
+                             join lateral (select id from dish order by id offset (line % (select count(*) from dish)) limit 1) d on true
+                    where o.reference = ?""")) {
+                ps.setInt(1, lines);
+                ps.setString(2, reference);
+                ps.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+
+    private static void deleteOrder(DBConnection dbConnection, String reference) throws SQLException {
+        try (Connection conn = dbConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    delete from dish_order where id_order in (select id from "order" where reference = ?)""")) {
+                ps.setString(1, reference);
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    delete from "order" where reference = ?""")) {
+                ps.setString(1, reference);
+                ps.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+}
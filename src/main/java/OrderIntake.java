@@ -0,0 +1,204 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous order intake. Submitted orders are queued and gathered into micro-batches, closed either
+ * when {@code maxBatchSize} orders are waiting or {@code batchWindow} after the first one arrived. Each
+ * batch is checked against the stock and committed in a single transaction; every order still gets its
+ * own outcome through its future. At most {@code capacity} orders wait in the queue: beyond that,
+ * {@link #submit} does not block but fails the order at once with a {@link RejectedExecutionException},
+ * leaving the caller free to retry later or shed load.
+ */
+public class OrderIntake implements AutoCloseable {
+    private static final Duration IDLE_POLL = Duration.ofMillis(100);
+    private static final int DEFAULT_CAPACITY = 10_000;
+
+    private final DataRetriever dataRetriever;
+    private final Duration batchWindow;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingOrder> queue;
+    private final ExecutorService callbacks = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread dispatcher;
+    private final ReentrantLock submitLock = new ReentrantLock();
+    private volatile boolean closed;
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder processedOrders = new LongAdder();
+    private final LongAdder rejectedOrders = new LongAdder();
+    private final AtomicInteger lastBatchSize = new AtomicInteger();
+    private final LongAccumulator largestBatchSize = new LongAccumulator(Math::max, 0);
+
+    public OrderIntake(DataRetriever dataRetriever) {
+        this(dataRetriever, Duration.ofMillis(5), 100);
+    }
+
+    public OrderIntake(DataRetriever dataRetriever, Duration batchWindow, int maxBatchSize) {
+        this(dataRetriever, batchWindow, maxBatchSize, DEFAULT_CAPACITY);
+    }
+
+    public OrderIntake(DataRetriever dataRetriever, Duration batchWindow, int maxBatchSize, int capacity) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be positive: " + maxBatchSize);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.dataRetriever = dataRetriever;
+        this.batchWindow = batchWindow;
+        this.maxBatchSize = maxBatchSize;
+        this.dispatcher = Thread.ofVirtual().name("order-intake-dispatcher").start(this::dispatch);
+    }
+
+    public CompletableFuture<Order> submit(Order order) {
+        CompletableFuture<Order> future = new CompletableFuture<>();
+        // Checked and enqueued under the lock close() takes, so an accepted order is always seen by the drain
+        submitLock.lock();
+        try {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("Order intake is closed"));
+                return future;
+            }
+            if (!queue.offer(new PendingOrder(order, future))) {
+                rejectedOrders.increment();
+                future.completeExceptionally(new RejectedExecutionException("Order intake queue is full"));
+            }
+        } finally {
+            submitLock.unlock();
+        }
+        return future;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getRejectedOrders() {
+        return rejectedOrders.sum();
+    }
+
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize.get();
+    }
+
+    public long getLargestBatchSize() {
+        return largestBatchSize.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0 : (double) processedOrders.sum() / batches;
+    }
+
+    /**
+     * Stops accepting orders, places the ones already queued and waits for the dispatcher to finish.
+     */
+    @Override
+    public void close() {
+        submitLock.lock();
+        try {
+            closed = true;
+        } finally {
+            submitLock.unlock();
+        }
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingOrder late;
+        while ((late = queue.poll()) != null) {
+            fail(late.future(), new IllegalStateException("Order intake is closed"));
+        }
+        callbacks.close();
+    }
+
+    private void dispatch() {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingOrder first = queue.poll(IDLE_POLL.toNanos(), TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingOrder> batch = new ArrayList<>();
+                batch.add(first);
+                long deadline = System.nanoTime() + batchWindow.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingOrder next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                place(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void place(List<PendingOrder> batch) {
+        batchCount.increment();
+        processedOrders.add(batch.size());
+        lastBatchSize.set(batch.size());
+        largestBatchSize.accumulate(batch.size());
+
+        List<Order> orders = batch.stream().map(PendingOrder::order).toList();
+        try {
+            List<OrderPlacementResult> results = dataRetriever.saveOrders(orders, OrderBatchMode.BEST_EFFORT);
+            for (int i = 0; i < batch.size(); i++) {
+                complete(batch.get(i).future(), results.get(i));
+            }
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                fail(batch.get(0).future(), e);
+                return;
+            }
+            // One bad order (e.g. a duplicate reference) must not sink the others: retry them one by one
+            for (PendingOrder pendingOrder : batch) {
+                try {
+                    complete(pendingOrder.future(), dataRetriever.saveOrders(List.of(pendingOrder.order()), OrderBatchMode.BEST_EFFORT).get(0));
+                } catch (RuntimeException orderFailure) {
+                    fail(pendingOrder.future(), orderFailure);
+                }
+            }
+        }
+    }
+
+    private void complete(CompletableFuture<Order> future, OrderPlacementResult result) {
+        if (result.isAccepted()) {
+            callbacks.execute(() -> future.complete(result.getOrder()));
+        } else {
+            fail(future, result.toException());
+        }
+    }
+
+    private void fail(CompletableFuture<Order> future, Throwable error) {
+        callbacks.execute(() -> future.completeExceptionally(error));
+    }
+
+    private record PendingOrder(Order order, CompletableFuture<Order> future) {
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.List;
+
+public class OrderPlacementResult {
+    private final Order order;
+    private final List<StockShortage> shortages;
+    private final String rejectionReason;
+
+    public OrderPlacementResult(Order order, List<StockShortage> shortages) {
+        this(order, shortages, shortages.isEmpty() ? null : "Stock insuffisant");
+    }
+
+    public OrderPlacementResult(Order order, List<StockShortage> shortages, String rejectionReason) {
+        this.order = order;
+        this.shortages = List.copyOf(shortages);
+        this.rejectionReason = rejectionReason;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public boolean isAccepted() {
+        return rejectionReason == null;
+    }
+
+    public List<StockShortage> getShortages() {
+        return shortages;
+    }
+
+    public String getRejectionReason() {
+        return rejectionReason;
+    }
+
+    public RuntimeException toException() {
+        if (!shortages.isEmpty()) {
+            return new InsufficientStockException(shortages);
+        }
+        return new RuntimeException("Order " + order.getReference() + " rejected: " + rejectionReason);
+    }
+
+    @Override
+    public String toString() {
+        return "OrderPlacementResult{" +
+                "reference=" + order.getReference() +
+                ", accepted=" + isAccepted() +
+                ", rejectionReason='" + rejectionReason + '\'' +
+                ", shortages=" + shortages +
+                '}';
+    }
+}
@@ -0,0 +1,137 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Places orders from several threads against one ingredient with a known stock and checks that exactly
+ * the available portions were sold and the balance never went negative. Prints throughput per thread count.
+ */
+public class OrderPlacementStress {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+    private static final int PORTIONS_IN_STOCK = 200;
+
+    public static void main(String[] args) throws Exception {
+        try (DBConnection dbConnection = new DBConnection("jdbc:postgresql://localhost:5432/mini_dish_db",
+                "postgres", "Fitiavana", 2, 20, Duration.ofSeconds(30), Duration.ofMinutes(5))) {
+            DataRetriever dataRetriever = new DataRetriever(dbConnection);
+            System.out.printf("%8s %10s %10s %12s %14s%n", "threads", "accepted", "rejected", "balance", "orders/s");
+            for (int threads : THREAD_COUNTS) {
+                String name = "Stress-" + threads + "-" + System.nanoTime();
+                int[] ids = createFixture(dataRetriever, name);
+                try {
+                    Dish dish = dataRetriever.findDishById(ids[1]);
+                    AtomicInteger accepted = new AtomicInteger();
+                    AtomicInteger rejected = new AtomicInteger();
+                    AtomicInteger sequence = new AtomicInteger();
+
+                    long start = System.nanoTime();
+                    ExecutorService executor = Executors.newFixedThreadPool(threads);
+                    List<Future<?>> workers = new ArrayList<>();
+                    for (int t = 0; t < threads; t++) {
+                        workers.add(executor.submit(() -> {
+                            while (accepted.get() + rejected.get() < PORTIONS_IN_STOCK * 2) {
+                                try {
+                                    dataRetriever.saveOrder(newOrder(name + "-" + sequence.incrementAndGet(), dish));
+                                    accepted.incrementAndGet();
+                                } catch (InsufficientStockException e) {
+                                    rejected.incrementAndGet();
+                                }
+                            }
+                        }));
+                    }
+                    for (Future<?> worker : workers) {
+                        worker.get();
+                    }
+                    executor.shutdown();
+                    double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+                    double balance = dataRetriever.getStockValueAt(ids[0], Instant.now()).getQuantity();
+                    System.out.printf("%8d %10d %10d %12.2f %14.1f%n", threads, accepted.get(), rejected.get(), balance,
+                            (accepted.get() + rejected.get()) / seconds);
+                    if (balance < 0 || accepted.get() != PORTIONS_IN_STOCK) {
+                        throw new IllegalStateException("Oversold: " + accepted.get() + " orders accepted for "
+                                + PORTIONS_IN_STOCK + " portions, balance " + balance);
+                    }
+                } finally {
+                    deleteFixture(dbConnection, ids, name);
+                }
+            }
+        }
+    }
+
+    private static Order newOrder(String reference, Dish dish) {
+        DishOrder dishOrder = new DishOrder();
+        dishOrder.setDish(dish);
+        dishOrder.setQuantity(1);
+        Order order = new Order();
+        order.setReference(reference);
+        order.setCreationDatetime(Instant.now());
+        order.setDishOrderList(List.of(dishOrder));
+        return order;
+    }
+
+    /**
+     * Goes through {@link DataRetriever} so the fixture ids come from the same {@link IdAllocator} blocks as
+     * the orders and movements placed afterwards.
+     */
+    private static int[] createFixture(DataRetriever dataRetriever, String name) {
+        Ingredient ingredient = new Ingredient(null, name, CategoryEnum.OTHER, 1.0, null);
+        int ingredientId = dataRetriever.createIngredients(List.of(ingredient)).get(0).getId();
+
+        DishIngredient dishIngredient = new DishIngredient();
+        dishIngredient.setIngredient(ingredient);
+        dishIngredient.setQuantity(1.0);
+        dishIngredient.setUnit(Unit.PCS);
+        Dish dish = new Dish();
+        dish.setName(name);
+        dish.setDishType(DishTypeEnum.MAIN);
+        dish.setPrice(1.0);
+        dish.setDishIngredients(List.of(dishIngredient));
+        int dishId = dataRetriever.saveDish(dish).getId();
+
+        StockValue value = new StockValue();
+        value.setQuantity((double) PORTIONS_IN_STOCK);
+        value.setUnit(Unit.PCS);
+        StockMovement stockMovement = new StockMovement();
+        stockMovement.setIdIngredient(ingredientId);
+        stockMovement.setType(MovementTypeEnum.IN);
+        stockMovement.setValue(value);
+        stockMovement.setCreationDatetime(Instant.now().minusSeconds(60));
+        dataRetriever.copyStockMovements(Stream.of(stockMovement));
+        return new int[]{ingredientId, dishId};
+    }
+
+    private static void deleteFixture(DBConnection dbConnection, int[] ids, String name) throws SQLException {
+        try (Connection conn = dbConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            execute(conn, "delete from dish_order where id_dish = ?", ids[1]);
+            try (PreparedStatement ps = conn.prepareStatement("delete from \"order\" where reference like ? || '-%'")) {
+                ps.setString(1, name);
+                ps.executeUpdate();
+            }
+            execute(conn, "delete from dish_ingredient where id_dish = ?", ids[1]);
+            execute(conn, "delete from dish where id = ?", ids[1]);
+            execute(conn, "delete from stock_checkpoint where id_ingredient = ?", ids[0]);
+            execute(conn, "delete from stock_daily_rollup where id_ingredient = ?", ids[0]);
+            execute(conn, "delete from stock_movement where id_ingredient = ?", ids[0]);
+            execute(conn, "delete from ingredient where id = ?", ids[0]);
+            conn.commit();
+        }
+    }
+
+    private static void execute(Connection conn, String sql, int id) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, id);
+            ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+public class ReorderAlert {
+    private final Integer idIngredient;
+    private final Unit unit;
+    private final double balance;
+    private final double dailyConsumption;
+    private final double daysOfCover;
+
+    public ReorderAlert(Integer idIngredient, Unit unit, double balance, double dailyConsumption, double daysOfCover) {
+        this.idIngredient = idIngredient;
+        this.unit = unit;
+        this.balance = balance;
+        this.dailyConsumption = dailyConsumption;
+        this.daysOfCover = daysOfCover;
+    }
+
+    public Integer getIdIngredient() {
+        return idIngredient;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    public double getDailyConsumption() {
+        return dailyConsumption;
+    }
+
+    public double getDaysOfCover() {
+        return daysOfCover;
+    }
+
+    @Override
+    public String toString() {
+        return "ReorderAlert{" +
+                "idIngredient=" + idIngredient +
+                ", unit=" + unit +
+                ", balance=" + balance +
+                ", dailyConsumption=" + dailyConsumption +
+                ", daysOfCover=" + daysOfCover +
+                '}';
+    }
+}
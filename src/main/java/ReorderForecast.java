@@ -0,0 +1,200 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Daily consumption rate of every ingredient and unit as an exponentially weighted moving average of the
+ * OUT totals of past days: each day closed folds its total in with weight {@code smoothing}. The rates are
+ * seeded from the daily rollups and then follow the movements committed through {@link DataRetriever},
+ * so the movement history is never re-read. Combined with the {@link LiveStock} balance this gives the
+ * days of cover, and an ingredient is due for reorder when it covers less than its reorder point.
+ */
+public class ReorderForecast {
+    private static final Unit[] UNITS = Unit.values();
+    private static final double NEGLIGIBLE_WEIGHT = 0.001;
+
+    private final DataRetriever dataRetriever;
+    private final LiveStock liveStock;
+    private final double smoothing;
+    private final double defaultReorderPointDays;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<Integer, Integer> slotByIngredient = new HashMap<>();
+    private int[] ingredientIds = new int[16];
+    private double[] reorderPointDays = new double[16];
+    private double[] dailyRates = new double[16 * UNITS.length];
+    private double[] openDayOut = new double[16 * UNITS.length];
+    private int size;
+    private long openDay;
+
+    public ReorderForecast(DataRetriever dataRetriever, LiveStock liveStock) {
+        this(dataRetriever, liveStock, 0.2, 3);
+    }
+
+    /**
+     * @param smoothing               weight of the last closed day in the average, between 0 excluded and 1
+     * @param defaultReorderPointDays days of cover under which an ingredient is reported
+     */
+    public ReorderForecast(DataRetriever dataRetriever, LiveStock liveStock, double smoothing,
+                           double defaultReorderPointDays) {
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("Smoothing must be in ]0, 1]: " + smoothing);
+        }
+        this.dataRetriever = dataRetriever;
+        this.liveStock = liveStock;
+        this.smoothing = smoothing;
+        this.defaultReorderPointDays = defaultReorderPointDays;
+        this.openDay = today();
+        dataRetriever.addStockMovementListener(this::record);
+    }
+
+    /**
+     * Seeds the rates from the daily rollups of the days old enough to still weigh in the average. The
+     * rollups are read at a point consistent with the movements already recorded, so none of them is lost
+     * or counted twice when writes go on during the hydration.
+     */
+    public void hydrate() {
+        LocalDate today = LocalDate.ofEpochDay(today());
+        int days = (int) Math.ceil(Math.log(NEGLIGIBLE_WEIGHT) / Math.log(1 - Math.min(smoothing, 0.999)));
+        dataRetriever.seedFromDailyConsumption(today.minusDays(days), today, history -> {
+            lock.lock();
+            try {
+                Arrays.fill(dailyRates, 0);
+                Arrays.fill(openDayOut, 0);
+                openDay = today.toEpochDay();
+                for (List<DailyConsumption> series : history.values()) {
+                    for (DailyConsumption day : series) {
+                        addOut(day.getIdIngredient(), day.getUnit(), day.getDay().toEpochDay(), day.getTotalOut());
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    public void setReorderPointDays(int idIngredient, double days) {
+        lock.lock();
+        try {
+            reorderPointDays[slotFor(idIngredient)] = days;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getDailyConsumption(int idIngredient, Unit unit) {
+        lock.lock();
+        try {
+            roll(today());
+            Integer slot = slotByIngredient.get(idIngredient);
+            return slot == null ? 0 : dailyRates[slot * UNITS.length + unit.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Days the current balance lasts at the current rate, infinite when nothing is consumed.
+     */
+    public double getDaysOfCover(int idIngredient, Unit unit) {
+        double rate = getDailyConsumption(idIngredient, unit);
+        double balance = Math.max(0, liveStock.getQuantity(idIngredient, unit));
+        return rate > 0 ? balance / rate : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Ingredients covering less days than their reorder point, the most urgent first.
+     */
+    public List<ReorderAlert> findIngredientsBelowReorderPoint() {
+        List<ReorderAlert> alerts = new ArrayList<>();
+        lock.lock();
+        try {
+            roll(today());
+            for (int slot = 0; slot < size; slot++) {
+                for (int unit = 0; unit < UNITS.length; unit++) {
+                    double rate = dailyRates[slot * UNITS.length + unit];
+                    if (rate <= 0) {
+                        continue;
+                    }
+                    double balance = Math.max(0, liveStock.getFixedPoint(ingredientIds[slot], UNITS[unit]) / (double) LiveStock.SCALE);
+                    double daysOfCover = balance / rate;
+                    if (daysOfCover < reorderPointDays[slot]) {
+                        alerts.add(new ReorderAlert(ingredientIds[slot], UNITS[unit], balance, rate, daysOfCover));
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        alerts.sort(Comparator.comparingDouble(ReorderAlert::getDaysOfCover));
+        return alerts;
+    }
+
+    private void record(StockMovementSummary summary) {
+        lock.lock();
+        try {
+            summary.getDailyTotals().forEach((key, totals) -> {
+                if (totals[1] != 0) {
+                    addOut(key.idIngredient(), key.unit(), key.day().toEpochDay(), totals[1] / (double) LiveStock.SCALE);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addOut(int idIngredient, Unit unit, long day, double quantity) {
+        roll(Math.max(day, today()));
+        int cell = slotFor(idIngredient) * UNITS.length + unit.ordinal();
+        if (day >= openDay) {
+            openDayOut[cell] += quantity;
+        } else {
+            // The average is linear: a late movement adds what it would have added when its day closed
+            dailyRates[cell] += smoothing * Math.pow(1 - smoothing, openDay - 1 - day) * quantity;
+        }
+    }
+
+    /**
+     * Closes the days up to {@code day} excluded, in one pass over the arrays.
+     */
+    private void roll(long day) {
+        long closedDays = day - openDay;
+        if (closedDays <= 0) {
+            return;
+        }
+        double decayAfterFirst = Math.pow(1 - smoothing, closedDays - 1);
+        for (int cell = 0; cell < size * UNITS.length; cell++) {
+            dailyRates[cell] = (smoothing * openDayOut[cell] + (1 - smoothing) * dailyRates[cell]) * decayAfterFirst;
+            openDayOut[cell] = 0;
+        }
+        openDay = day;
+    }
+
+    private int slotFor(int idIngredient) {
+        Integer slot = slotByIngredient.get(idIngredient);
+        if (slot != null) {
+            return slot;
+        }
+        if (size == ingredientIds.length) {
+            int capacity = size * 2;
+            ingredientIds = Arrays.copyOf(ingredientIds, capacity);
+            reorderPointDays = Arrays.copyOf(reorderPointDays, capacity);
+            dailyRates = Arrays.copyOf(dailyRates, capacity * UNITS.length);
+            openDayOut = Arrays.copyOf(openDayOut, capacity * UNITS.length);
+        }
+        ingredientIds[size] = idIngredient;
+        reorderPointDays[size] = defaultReorderPointDays;
+        slotByIngredient.put(idIngredient, size);
+        return size++;
+    }
+
+    private static long today() {
+        return LocalDate.now(ZoneId.systemDefault()).toEpochDay();
+    }
+}
@@ -0,0 +1,35 @@
+public class SalesTotal {
+    private final long orderCount;
+    private final long quantity;
+    private final double revenue;
+
+    public SalesTotal(long orderCount, long quantity, double revenue) {
+        this.orderCount = orderCount;
+        this.quantity = quantity;
+        this.revenue = revenue;
+    }
+
+    public long getOrderCount() {
+        return orderCount;
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Revenue of the dishes that have a selling price.
+     */
+    public double getRevenue() {
+        return revenue;
+    }
+
+    @Override
+    public String toString() {
+        return "SalesTotal{" +
+                "orderCount=" + orderCount +
+                ", quantity=" + quantity +
+                ", revenue=" + revenue +
+                '}';
+    }
+}
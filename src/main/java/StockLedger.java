@@ -0,0 +1,115 @@
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Stock movements of one ingredient sorted by time, kept as primitive arrays with a prefix sum of the
+ * signed quantities so that the balance at any instant is a binary search.
+ */
+public class StockLedger {
+    private long[] epochNanos;
+    private double[] signedQuantities;
+    private double[] prefixSums;
+    private int size;
+    private Unit unit;
+    private boolean multipleUnits;
+
+    public StockLedger(List<StockMovement> stockMovements) {
+        StockMovement[] sorted = stockMovements.toArray(new StockMovement[0]);
+        Arrays.sort(sorted, Comparator.comparing(StockMovement::getCreationDatetime));
+        int capacity = Math.max(8, sorted.length);
+        epochNanos = new long[capacity];
+        signedQuantities = new double[capacity];
+        prefixSums = new double[capacity + 1];
+        for (StockMovement stockMovement : sorted) {
+            trackUnit(stockMovement);
+            epochNanos[size] = toEpochNanos(stockMovement.getCreationDatetime());
+            signedQuantities[size] = signedQuantity(stockMovement);
+            prefixSums[size + 1] = prefixSums[size] + signedQuantities[size];
+            size++;
+        }
+    }
+
+    public void append(StockMovement stockMovement) {
+        trackUnit(stockMovement);
+        if (size == epochNanos.length) {
+            int capacity = epochNanos.length * 2;
+            epochNanos = Arrays.copyOf(epochNanos, capacity);
+            signedQuantities = Arrays.copyOf(signedQuantities, capacity);
+            prefixSums = Arrays.copyOf(prefixSums, capacity + 1);
+        }
+        long key = toEpochNanos(stockMovement.getCreationDatetime());
+        int position = upperBound(key);
+        System.arraycopy(epochNanos, position, epochNanos, position + 1, size - position);
+        System.arraycopy(signedQuantities, position, signedQuantities, position + 1, size - position);
+        epochNanos[position] = key;
+        signedQuantities[position] = signedQuantity(stockMovement);
+        size++;
+        for (int i = position; i < size; i++) {
+            prefixSums[i + 1] = prefixSums[i] + signedQuantities[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public boolean hasMultipleUnits() {
+        return multipleUnits;
+    }
+
+    /**
+     * Balance of all movements created at or before {@code t}.
+     */
+    public double quantityAt(Instant t) {
+        return prefixSums[upperBound(toEpochNanos(t))];
+    }
+
+    /**
+     * Net quantity moved after {@code from} and up to {@code to} included.
+     */
+    public double quantityBetween(Instant from, Instant to) {
+        return quantityAt(to) - quantityAt(from);
+    }
+
+    private int upperBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (epochNanos[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void trackUnit(StockMovement stockMovement) {
+        Unit movementUnit = stockMovement.getValue().getUnit();
+        if (unit == null) {
+            unit = movementUnit;
+        } else if (unit != movementUnit) {
+            multipleUnits = true;
+        }
+    }
+
+    private static double signedQuantity(StockMovement stockMovement) {
+        double quantity = stockMovement.getValue().getQuantity();
+        return stockMovement.getType() == MovementTypeEnum.IN ? quantity : -quantity;
+    }
+
+    private static long toEpochNanos(Instant t) {
+        try {
+            return Math.addExact(Math.multiplyExact(t.getEpochSecond(), 1_000_000_000L), t.getNano());
+        } catch (ArithmeticException e) {
+            return t.getEpochSecond() < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+}
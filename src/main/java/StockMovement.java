@@ -3,6 +3,7 @@ import java.util.Objects;
 
 public class StockMovement {
     private Integer id;
+    private Integer idIngredient;
     private MovementTypeEnum type;
     private Instant creationDatetime;
     private StockValue value;
@@ -18,6 +19,14 @@ public class StockMovement {
         this.id = id;
     }
 
+    public Integer getIdIngredient() {
+        return idIngredient;
+    }
+
+    public void setIdIngredient(Integer idIngredient) {
+        this.idIngredient = idIngredient;
+    }
+
     public MovementTypeEnum getType() {
         return type;
     }
@@ -57,6 +66,7 @@ public class StockMovement {
     public String toString() {
         return "StockMovement{" +
                 "id=" + id +
+                ", idIngredient=" + idIngredient +
                 ", type=" + type +
                 ", creationDatetime=" + creationDatetime +
                 ", value=" + value +
@@ -0,0 +1,59 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the derived stock data needs to know about a set of movements just written, accumulated one
+ * movement at a time so that bulk writes never have to keep the movements themselves.
+ */
+public class StockMovementSummary {
+    private final Map<Integer, Instant> earliestByIngredient = new HashMap<>();
+    private final Map<Integer, long[]> deltaByIngredient = new HashMap<>();
+    private final Map<DailyKey, long[]> dailyTotals = new HashMap<>();
+    private long count;
+
+    public void add(StockMovement stockMovement) {
+        earliestByIngredient.merge(stockMovement.getIdIngredient(), stockMovement.getCreationDatetime(),
+                (current, candidate) -> candidate.isBefore(current) ? candidate : current);
+        long quantity = LiveStock.toFixedPoint(stockMovement.getValue().getQuantity());
+        deltaByIngredient.computeIfAbsent(stockMovement.getIdIngredient(), id -> new long[Unit.values().length])
+                [stockMovement.getValue().getUnit().ordinal()] += stockMovement.getType() == MovementTypeEnum.IN ? quantity : -quantity;
+        long[] daily = dailyTotals.computeIfAbsent(new DailyKey(stockMovement.getIdIngredient(),
+                stockMovement.getValue().getUnit(),
+                LocalDate.ofInstant(stockMovement.getCreationDatetime(), ZoneId.systemDefault())), key -> new long[3]);
+        daily[stockMovement.getType() == MovementTypeEnum.IN ? 0 : 1] += quantity;
+        daily[2]++;
+        count++;
+    }
+
+    public Map<Integer, Instant> getEarliestByIngredient() {
+        return earliestByIngredient;
+    }
+
+    /**
+     * Net signed quantity per ingredient, in hundredths, indexed by {@link Unit#ordinal()}.
+     */
+    public Map<Integer, long[]> getDeltaByIngredient() {
+        return deltaByIngredient;
+    }
+
+    /**
+     * IN total, OUT total (both in hundredths) and movement count per ingredient, unit and local day.
+     */
+    public Map<DailyKey, long[]> getDailyTotals() {
+        return dailyTotals;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public record DailyKey(int idIngredient, Unit unit, LocalDate day) {
+    }
+}
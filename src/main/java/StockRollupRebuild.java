@@ -0,0 +1,23 @@
+import java.time.LocalDate;
+
+/**
+ * Rebuilds the daily stock rollups from stock_movement: every day when run without argument, otherwise
+ * the days from the first to the second ISO date included, e.g. {@code 2025-01-01 2025-12-31}.
+ */
+public class StockRollupRebuild {
+    public static void main(String[] args) {
+        try (DBConnection dbConnection = new DBConnection()) {
+            DataRetriever dataRetriever = new DataRetriever(dbConnection);
+            long start = System.nanoTime();
+            if (args.length == 0) {
+                dataRetriever.rebuildDailyRollups();
+            } else if (args.length == 2) {
+                dataRetriever.rebuildDailyRollups(LocalDate.parse(args[0]), LocalDate.parse(args[1]));
+            } else {
+                System.err.println("Usage: StockRollupRebuild [from to]");
+                System.exit(1);
+            }
+            System.out.printf("Rollups rebuilt in %.1f ms%n", (System.nanoTime() - start) / 1_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.Serializable;
+
+public class StockShortage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Integer idIngredient;
+    private String ingredientName;
+    private Unit unit;
+    private Double requiredQuantity;
+    private Double availableQuantity;
+
+    public StockShortage() {
+    }
+
+    public StockShortage(Integer idIngredient, String ingredientName, Unit unit, Double requiredQuantity, Double availableQuantity) {
+        this.idIngredient = idIngredient;
+        this.ingredientName = ingredientName;
+        this.unit = unit;
+        this.requiredQuantity = requiredQuantity;
+        this.availableQuantity = availableQuantity;
+    }
+
+    public Integer getIdIngredient() {
+        return idIngredient;
+    }
+
+    public void setIdIngredient(Integer idIngredient) {
+        this.idIngredient = idIngredient;
+    }
+
+    public String getIngredientName() {
+        return ingredientName;
+    }
+
+    public void setIngredientName(String ingredientName) {
+        this.ingredientName = ingredientName;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public void setUnit(Unit unit) {
+        this.unit = unit;
+    }
+
+    public Double getRequiredQuantity() {
+        return requiredQuantity;
+    }
+
+    public void setRequiredQuantity(Double requiredQuantity) {
+        this.requiredQuantity = requiredQuantity;
+    }
+
+    public Double getAvailableQuantity() {
+        return availableQuantity;
+    }
+
+    public void setAvailableQuantity(Double availableQuantity) {
+        this.availableQuantity = availableQuantity;
+    }
+
+    @Override
+    public String toString() {
+        return "StockShortage{" +
+                "idIngredient=" + idIngredient +
+                ", ingredientName='" + ingredientName + '\'' +
+                ", unit=" + unit +
+                ", requiredQuantity=" + requiredQuantity +
+                ", availableQuantity=" + availableQuantity +
+                '}';
+    }
+}
@@ -76,4 +76,58 @@ create table if not exists dish_order
     id_order int references "order" (id),
     id_dish  int references dish (id),
     quantity int
-);
\ No newline at end of file
+);
+
+create index if not exists stock_movement_ingredient_datetime_idx
+    on stock_movement (id_ingredient, creation_datetime);
+
+create table if not exists stock_checkpoint
+(
+    id_ingredient       int references ingredient (id),
+    unit                unit,
+    checkpoint_datetime timestamp without time zone,
+    quantity            numeric(12, 2),
+    primary key (id_ingredient, checkpoint_datetime, unit)
+);
+
+do
+$$
+    declare
+        duplicates text;
+    begin
+        select string_agg(format('%L (ids %s)', reference, ids), ', ')
+        into duplicates
+        from (select reference, string_agg(id::text, ', ' order by id) as ids
+              from "order"
+              where reference is not null
+              group by reference
+              having count(*) > 1) d;
+        if duplicates is not null then
+            raise exception 'Duplicate order references must be resolved before creating order_reference_key: %',
+                duplicates;
+        end if;
+    end
+$$;
+
+create unique index if not exists order_reference_key
+    on "order" (reference varchar_pattern_ops);
+
+create table if not exists stock_daily_rollup
+(
+    id_ingredient  int references ingredient (id),
+    unit           unit,
+    day            date,
+    total_in       numeric(14, 2) not null default 0,
+    total_out      numeric(14, 2) not null default 0,
+    movement_count int            not null default 0,
+    primary key (id_ingredient, day, unit)
+);
+
+create index if not exists stock_daily_rollup_day_idx
+    on stock_daily_rollup (day, id_ingredient, unit) include (total_in, total_out, movement_count);
+
+create index if not exists order_creation_datetime_idx
+    on "order" (creation_datetime) include (id);
+
+create index if not exists dish_order_order_idx
+    on dish_order (id_order) include (id_dish, quantity);